@@ -0,0 +1,92 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.bench;
+
+import edu.upenn.sas.matthews.ms.basics.protein.IonType;
+import edu.upenn.sas.matthews.ms.basics.protein.Peptide;
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+import edu.upenn.sas.matthews.ms.view.Annotation;
+import edu.upenn.sas.matthews.ms.view.MSAnnotator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MSAnnotator.drawSpectrum of an annotated MS2 spectrum into a 2000x600 image, for a sparse and a dense
+ * spectrum. An operation is one image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class DrawSpectrumBenchmark {
+
+    @Param({"500", "5000"})
+    public int peakNum;
+
+    private MSnSpectrum spec;
+    private double[] mzArr;
+    private double[] relaHArr;
+    private ArrayList<Annotation> alist;
+    private BufferedImage bi;
+    private MSAnnotator annotator;
+
+    @Setup
+    public void setUp() {
+        double[] yIons = new Peptide(SyntheticData.PEPTIDE).getFragIonMassArr(IonType.Y);
+        spec = new SyntheticData(7).ms2Spectrum(1, 1, peakNum, yIons);
+        mzArr = spec.getMzArr();
+        relaHArr = spec.getIntenArr().clone();
+        double maxH = 0;
+        for (double h : relaHArr) {
+            maxH = Math.max(maxH, h);
+        }
+        for (int i = 0; i < relaHArr.length; i++) {
+            relaHArr[i] = relaHArr[i] / maxH * 100;
+        }
+        alist = new ArrayList<>();
+        for (int i = 0; i < yIons.length; i++) {
+            int pos = spec.searchMz(yIons[i], 0.2, false);
+            if (pos >= 0) {
+                alist.add(new Annotation(mzArr[pos], relaHArr[pos], new AttributedString("y" + (i + 1)), false,
+                        false));
+            }
+        }
+        bi = new BufferedImage(2000, 600, BufferedImage.TYPE_INT_BGR);
+        annotator = new MSAnnotator();
+    }
+
+    @Benchmark
+    public int drawSpectrum() {
+        annotator.drawSpectrum(bi, spec.getPrecMz(), spec.getPrecZ(), mzArr, relaHArr, alist);
+        return bi.getRGB(1000, 300);
+    }
+
+}
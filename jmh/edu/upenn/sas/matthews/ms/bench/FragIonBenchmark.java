@@ -0,0 +1,61 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.bench;
+
+import edu.upenn.sas.matthews.ms.basics.protein.IonType;
+import edu.upenn.sas.matthews.ms.basics.protein.Peptide;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Peptide.getFragIonMassArr of a modified peptide, for each ion type. An operation is one ion type.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FragIonBenchmark {
+
+    @Param({"A", "B", "Y", "B_WATER_LOSS", "B_AMMONIA_LOSS", "Y_WATER_LOSS", "Y_AMMONIA_LOSS"})
+    public String ionTypeName;
+
+    private Peptide peptide;
+    private IonType ionType;
+
+    @Setup
+    public void setUp() {
+        peptide = new Peptide(SyntheticData.PEPTIDE);
+        ionType = IonType.valueOf(ionTypeName);
+    }
+
+    @Benchmark
+    public double[] fragIonMassArr() {
+        return peptide.getFragIonMassArr(ionType);
+    }
+
+}
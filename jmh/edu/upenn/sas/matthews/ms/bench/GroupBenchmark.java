@@ -0,0 +1,83 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.bench;
+
+import edu.upenn.sas.matthews.ms.app.FeatureAligner;
+import edu.upenn.sas.matthews.ms.app.PairFinderInMS1;
+import edu.upenn.sas.matthews.ms.app.PrecInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PairFinderInMS1.group of the precursors of 3 runs, and FeatureAligner.align of the pairs of 10 runs. An
+ * operation is one call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupBenchmark {
+
+    private List<PrecInfo> piList;
+    // group merges into its input, so each call groups a fresh copy;
+    private List<PrecInfo> copy;
+    private Map<String, List<PrecInfo>> groups;
+    private String[] filenames;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData data = new SyntheticData(7);
+        piList = data.precInfoList(5000, 3);
+        groups = PairFinderInMS1.group(data.precInfoList(20000, 10), 5, true, 0.5);
+        filenames = groups.keySet().toArray(new String[0]);
+        Arrays.sort(filenames);
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() {
+        copy = new ArrayList<>(piList.size());
+        for (PrecInfo pi : piList) {
+            copy.add(new PrecInfo(pi));
+        }
+    }
+
+    @Benchmark
+    public Map<String, List<PrecInfo>> group() {
+        return PairFinderInMS1.group(copy, 5, true, 0.5);
+    }
+
+    @Benchmark
+    public List<FeatureAligner.Feature> align() {
+        return FeatureAligner.align(groups, filenames, 5, true, 0.5, 2);
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.bench;
+
+import edu.upenn.sas.matthews.ms.basics.protein.IonType;
+import edu.upenn.sas.matthews.ms.basics.protein.Peptide;
+import edu.upenn.sas.matthews.ms.io.MSnFileReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The throughput of MSnFileReader.next() on synthetic .ms1 and .ms2 files, line-based and memory-mapped. An
+ * operation is one spectrum.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MSnFileReaderBenchmark {
+
+    private static final int SCAN_NUM = 500;
+    private static final int PEAK_NUM = 500;
+
+    @Param({"ms1", "ms2"})
+    public String msLevel;
+
+    @Param({"false", "true"})
+    public boolean isMapped;
+
+    private File dataDir;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("probe_jmh_").toFile();
+        SyntheticData data = new SyntheticData(7);
+        file = new File(dataDir, "synthetic." + msLevel);
+        if (msLevel.equals("ms1")) {
+            data.writeMs1(file, SCAN_NUM, PEAK_NUM);
+        } else {
+            data.writeMs2(file, SCAN_NUM, PEAK_NUM,
+                    new Peptide(SyntheticData.PEPTIDE).getFragIonMassArr(IonType.Y));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticData.delete(dataDir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCAN_NUM)
+    public void next(Blackhole bh) throws IOException {
+        MSnFileReader mfr = new MSnFileReader(file.getAbsolutePath(), isMapped);
+        while (mfr.hasNext()) {
+            bh.consume(mfr.next());
+        }
+        mfr.close();
+    }
+
+}
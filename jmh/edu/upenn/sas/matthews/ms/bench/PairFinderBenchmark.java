@@ -0,0 +1,124 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.bench;
+
+import edu.upenn.sas.matthews.ms.app.LabelSet;
+import edu.upenn.sas.matthews.ms.app.PairFinderInMS1;
+import edu.upenn.sas.matthews.ms.app.PairOffsetTable;
+import edu.upenn.sas.matthews.ms.app.PairSearchParams;
+import edu.upenn.sas.matthews.ms.app.PrecInfo;
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+import edu.upenn.sas.matthews.ms.basics.spec.SpectrumRun;
+import edu.upenn.sas.matthews.ms.deconv.Deconvolver;
+import edu.upenn.sas.matthews.ms.deconv.IsotopeEnvelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pair search of PairFinderInMS1 on an MS1 spectrum of noise peaks and 20 labeled pairs. An operation is
+ * one spectrum, i.e. all its peaks for huntsPair. The InRun variants search the same spectrum through a scan
+ * view of a float SpectrumRun, which reads the peak columns in place.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PairFinderBenchmark {
+
+    @Param({"500", "5000"})
+    public int peakNum;
+
+    private MSnSpectrum spec;
+    // the offsets are computed once per run;
+    private PairSearchParams params;
+    private PairOffsetTable offsetTable;
+    // the same spectrum with three more labels, one of them a triplet, searched in the same pass;
+    private PairSearchParams params4Labels;
+    private PairSearchParams deconvParams;
+    private Deconvolver deconvolver;
+    private SpectrumRun.Scan scan;
+
+    @Setup
+    public void setUp() throws IOException {
+        spec = new SyntheticData(7).ms1Spectrum(1, 1, peakNum, 20);
+        params = new PairSearchParams();
+        params.setLabels(new LabelSet(new double[]{SyntheticData.LABEL_MASS_DIFF}));
+        offsetTable = params.getOffsetTable();
+        params4Labels = new PairSearchParams();
+        params4Labels.setLabels(LabelSet.parse(SyntheticData.LABEL_MASS_DIFF + ",4.0251:8.0502,3.0094,10.0083"));
+        deconvParams = new PairSearchParams();
+        deconvParams.setLabels(params.getLabels());
+        deconvParams.setDeconvolved(true);
+        deconvolver = deconvParams.getDeconvolver();
+        SpectrumRun run = new SpectrumRun(true);
+        run.add(spec);
+        run.trim();
+        scan = run.getScan(0);
+    }
+
+    @Benchmark
+    public void huntsPair(Blackhole bh) {
+        for (int i = 0; i < spec.getNumPeaks(); i++) {
+            bh.consume(PairFinderInMS1.huntsPair(i, spec, 5, 0.85, offsetTable));
+        }
+    }
+
+    @Benchmark
+    public List<PrecInfo> findPairs() {
+        return PairFinderInMS1.find(spec, "synthetic.ms1", params);
+    }
+
+    @Benchmark
+    public List<PrecInfo> findPairs4Labels() {
+        return PairFinderInMS1.find(spec, "synthetic.ms1", params4Labels);
+    }
+
+    @Benchmark
+    public List<IsotopeEnvelope> deconvolve() {
+        return deconvolver.deconvolve(spec);
+    }
+
+    @Benchmark
+    public List<PrecInfo> findPairsDeconv() {
+        return PairFinderInMS1.find(spec, "synthetic.ms1", deconvParams);
+    }
+
+    @Benchmark
+    public List<PrecInfo> findPairsInRun() {
+        return PairFinderInMS1.find(scan, "synthetic.ms1", params);
+    }
+
+    @Benchmark
+    public List<PrecInfo> findPairsDeconvInRun() {
+        return PairFinderInMS1.find(scan, "synthetic.ms1", deconvParams);
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.bench;
+
+import edu.upenn.sas.matthews.ms.basics.protein.IonType;
+import edu.upenn.sas.matthews.ms.basics.protein.Peptide;
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MassSpectrum.searchMz on an MS2 spectrum of 500 peaks, one target at a time and in a sorted batch. An
+ * operation is one target.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchMzBenchmark {
+
+    private static final int TARGET_NUM = 1024;
+
+    private MSnSpectrum spec;
+    private double[] targets;
+    private int[] posArr;
+
+    @Setup
+    public void setUp() {
+        SyntheticData data = new SyntheticData(7);
+        spec = data.ms2Spectrum(1, 1, 500, new Peptide(SyntheticData.PEPTIDE).getFragIonMassArr(IonType.Y));
+        targets = data.randomIons(TARGET_NUM);
+        posArr = new int[TARGET_NUM];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TARGET_NUM)
+    public void searchMz(Blackhole bh) {
+        for (double target : targets) {
+            bh.consume(spec.searchMz(target, 10, true));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TARGET_NUM)
+    public int[] searchMzBatch() {
+        spec.searchMzBatch(targets, 10, true, posArr);
+        return posArr;
+    }
+
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.bench;
+
+import edu.upenn.sas.matthews.ms.app.PrecInfo;
+import edu.upenn.sas.matthews.ms.basics.Constants;
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+import jargs.gnu.CmdLineParser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates synthetic MS1/MS2 spectra and files, so that the benchmarks run without real data. MS1 spectra
+ * carry pairs of light and heavy isotope envelopes which PairFinderInMS1 reports; MS2 spectra carry the given
+ * fragment ions in some of the scans. The same seed always gives the same data.
+ * <p>
+ * It belongs to the benchmarks, and is not part of the application jar.
+ */
+public class SyntheticData {
+
+    public static final double LABEL_MASS_DIFF = 6.0138;
+    // a modified peptide whose fragment ions are put into the MS2 spectra;
+    public static final String PEPTIDE = "Q(+.98)GCTVTVSDLYAM(-48.00)NLEPR";
+
+    private final Random rnd;
+
+    public SyntheticData(long seed) {
+        rnd = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        CmdLineParser parser = new CmdLineParser();
+        CmdLineParser.Option outFolderPathArg = parser.addStringOption('o', "OutputFolderPath");
+        CmdLineParser.Option scanNumArg = parser.addIntegerOption('n', "ScanNum");
+        CmdLineParser.Option peakNumArg = parser.addIntegerOption('p', "PeakNum");
+        CmdLineParser.Option seedArg = parser.addIntegerOption('s', "Seed");
+
+        try {
+            parser.parse(args);
+        } catch (CmdLineParser.OptionException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+        }
+
+        String outFolderPath = (String) parser.getOptionValue(outFolderPathArg);
+        Integer scanNum = (Integer) parser.getOptionValue(scanNumArg, 1000);
+        Integer peakNum = (Integer) parser.getOptionValue(peakNumArg, 500);
+        Integer seed = (Integer) parser.getOptionValue(seedArg, 7);
+        if (outFolderPath == null) {
+            printUsage();
+        }
+
+        File outDir = new File(outFolderPath);
+        if (!outDir.exists() && !outDir.mkdirs()) {
+            System.err.println("Failed in creating the folder " + outFolderPath);
+            System.exit(1);
+        }
+
+        SyntheticData data = new SyntheticData(seed);
+        File ms1File = new File(outDir, "synthetic.ms1");
+        File ms2File = new File(outDir, "synthetic.ms2");
+        data.writeMs1(ms1File, scanNum, peakNum);
+        data.writeMs2(ms2File, scanNum, peakNum, data.randomIons(15));
+        System.out.println("The synthetic files have been exported to " + outDir.getAbsolutePath());
+    }
+
+    private static void printUsage() {
+        System.err.println("java -cp build/classes/java/main:build/classes/java/jmh:libs/yuicompressor-2.3.6.jar "
+                + "edu.upenn.sas.matthews.ms.bench.SyntheticData \n"
+                + "\t<-o Output_Folder_Path>\n"
+                + "\t[-n Scan_Number (Default: 1000)]\n"
+                + "\t[-p Peak_Number_Per_Scan (Default: 500)]\n"
+                + "\t[-s Seed (Default: 7)]\n");
+        System.exit(1);
+    }
+
+    /**
+     * Get an MS1 spectrum of random noise peaks and labeled pairs.
+     * @param scanNumber the scan number.
+     * @param rt the retention time.
+     * @param peakNum the number of noise peaks.
+     * @param pairNum the number of light/heavy pairs, each with three isotope peaks per partner.
+     * @return an MS1 spectrum with its peaks sorted by m/z.
+     */
+    public MSnSpectrum ms1Spectrum(int scanNumber, float rt, int peakNum, int pairNum) {
+        double[] mzArr = new double[peakNum + pairNum * 6];
+        double[] intenArr = new double[mzArr.length];
+        int num = 0;
+        for (int i = 0; i < peakNum; i++) {
+            mzArr[num] = round(300 + rnd.nextDouble() * 1200);
+            intenArr[num] = 10 + rnd.nextInt(5000);
+            num++;
+        }
+        for (int i = 0; i < pairNum; i++) {
+            double mz = round(400 + rnd.nextDouble() * 1000);
+            int z = 2 + rnd.nextInt(3);
+            double h = 50000 + rnd.nextInt(100000);
+            double[] ratioArr = {1, 0.6, 0.25};
+            for (int k = 0; k < ratioArr.length; k++) {
+                mzArr[num] = round(mz + k * Constants.NEUTRON_MASS / z);
+                intenArr[num] = h * ratioArr[k];
+                num++;
+                mzArr[num] = round(mz + LABEL_MASS_DIFF / z + k * Constants.NEUTRON_MASS / z);
+                intenArr[num] = h * ratioArr[k] * 0.9;
+                num++;
+            }
+        }
+
+        MSnSpectrum ret = sorted(mzArr, intenArr, 1);
+        ret.setScanNumber(scanNumber);
+        ret.setRt(rt);
+        return ret;
+    }
+
+    /**
+     * Get an MS2 spectrum of random noise peaks, with the given fragment ions if any.
+     * @param scanNumber the scan number.
+     * @param rt the retention time.
+     * @param peakNum the number of noise peaks.
+     * @param ions the m/z values of the fragment ions, or an empty array.
+     * @return an MS2 spectrum with its peaks sorted by m/z.
+     */
+    public MSnSpectrum ms2Spectrum(int scanNumber, float rt, int peakNum, double[] ions) {
+        double[] mzArr = new double[peakNum + ions.length];
+        double[] intenArr = new double[mzArr.length];
+        for (int i = 0; i < peakNum; i++) {
+            mzArr[i] = round(100 + rnd.nextDouble() * 1900);
+            intenArr[i] = 10 + rnd.nextInt(500);
+        }
+        for (int i = 0; i < ions.length; i++) {
+            mzArr[peakNum + i] = round(ions[i] + (rnd.nextDouble() - 0.5) * 0.1);
+            intenArr[peakNum + i] = 500 + rnd.nextInt(2500);
+        }
+
+        double precMz = round(400 + rnd.nextDouble() * 800);
+        MSnSpectrum ret = sorted(mzArr, intenArr, 2);
+        ret.setScanNumber(scanNumber);
+        ret.setRt(rt);
+        ret.setPrecMz(precMz);
+        ret.setPrecZ(2);
+        ret.setPrecScanNumber(scanNumber - 1);
+        ret.setTic(10000 + rnd.nextInt(1000000));
+        return ret;
+    }
+
+    /**
+     * Get random fragment ion m/z values.
+     * @param num the number of ions.
+     * @return the sorted m/z values.
+     */
+    public double[] randomIons(int num) {
+        double[] ret = new double[num];
+        for (int i = 0; i < num; i++) {
+            ret[i] = round(150 + rnd.nextDouble() * 1500);
+        }
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /**
+     * Get the precursors of several runs, where most precursors are repeated across runs with small m/z and
+     * retention time shifts, as in the input of PairFinderInMS1.group.
+     * @param num the number of precursors.
+     * @param fileNum the number of runs.
+     * @return a list of precursors.
+     */
+    public List<PrecInfo> precInfoList(int num, int fileNum) {
+        List<PrecInfo> ret = new ArrayList<>(num);
+        int featureNum = Math.max(1, num / fileNum);
+        double[] mzArr = new double[featureNum];
+        double[] rtArr = new double[featureNum];
+        for (int i = 0; i < featureNum; i++) {
+            mzArr[i] = 400 + rnd.nextDouble() * 1000;
+            rtArr[i] = rnd.nextDouble() * 120;
+        }
+        for (int i = 0; i < num; i++) {
+            int f = rnd.nextInt(featureNum);
+            double mz = mzArr[f] * (1 + (rnd.nextDouble() - 0.5) * 4E-6);
+            double rt = rtArr[f] + (rnd.nextDouble() - 0.5) * 0.4;
+            ret.add(new PrecInfo(mz, 10000 + rnd.nextInt(100000), 2 + rnd.nextInt(3), "run" + (i % fileNum), rt));
+        }
+        return ret;
+    }
+
+    /**
+     * Write an MS1 file in the format read by MSnFileReader.
+     * @throws IOException
+     */
+    public void writeMs1(File file, int scanNum, int peakNum) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        bw.write("H\tCreationDate\tsynthetic\n");
+        bw.write("H\tExtractor\tSyntheticData\n");
+        for (int s = 1; s <= scanNum; s++) {
+            MSnSpectrum spec = ms1Spectrum(s, s * 0.02f, peakNum, 5);
+            bw.write(String.format(Locale.ROOT, "S\t%06d\t%06d\n", s, s));
+            bw.write("I\tRetTime\t" + spec.getRt() + "\n");
+            writePeaks(bw, spec);
+        }
+        bw.close();
+    }
+
+    /**
+     * Write an MS2 file in the format read by MSnFileReader; every 7th scan carries the fragment ions.
+     * @throws IOException
+     */
+    public void writeMs2(File file, int scanNum, int peakNum, double[] ions) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        bw.write("H\tCreationDate\tsynthetic\n");
+        bw.write("H\tExtractor\tSyntheticData\n");
+        for (int s = 1; s <= scanNum; s++) {
+            MSnSpectrum spec = ms2Spectrum(s, s * 0.02f, peakNum, s % 7 == 0 ? ions : new double[0]);
+            bw.write(String.format(Locale.ROOT, "S\t%06d\t%06d\t%.4f\n", s, s, spec.getPrecMz()));
+            bw.write("I\tRetTime\t" + spec.getRt() + "\n");
+            bw.write("I\tPrecursorInt\t" + spec.getTic() + "\n");
+            bw.write("I\tPrecursorScan\t" + spec.getPrecScanNumber() + "\n");
+            bw.write(String.format(Locale.ROOT, "Z\t%d\t%.4f\n", spec.getPrecZ(),
+                    (spec.getPrecMz() - Constants.PROTON_MASS) * spec.getPrecZ() + Constants.PROTON_MASS));
+            writePeaks(bw, spec);
+        }
+        bw.close();
+    }
+
+    private static void writePeaks(BufferedWriter bw, MSnSpectrum spec) throws IOException {
+        double[] mzArr = spec.getMzArr();
+        double[] intenArr = spec.getIntenArr();
+        for (int i = 0; i < spec.getNumPeaks(); i++) {
+            bw.write(String.format(Locale.ROOT, "%.4f %.1f\n", mzArr[i], intenArr[i]));
+        }
+    }
+
+    private static MSnSpectrum sorted(double[] mzArr, double[] intenArr, int msStage) {
+        Integer[] order = new Integer[mzArr.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> Double.compare(mzArr[i], mzArr[j]));
+        double[] sortedMzArr = new double[mzArr.length];
+        double[] sortedIntenArr = new double[mzArr.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedMzArr[i] = mzArr[order[i]];
+            sortedIntenArr[i] = intenArr[order[i]];
+        }
+        return new MSnSpectrum(sortedMzArr, sortedIntenArr, msStage);
+    }
+
+    private static double round(double mz) {
+        return Math.round(mz * 1E4) / 1E4;
+    }
+
+    /**
+     * Delete a directory of synthetic files, with the indexes and caches written next to them.
+     */
+    public static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+}
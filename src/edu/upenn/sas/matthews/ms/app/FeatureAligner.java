@@ -0,0 +1,347 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.app;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aligns the pairs found in several files, e.g. the fractions or replicates of a batch, into one table of
+ * features, each feature being one labeled pair with its intensity in every file.
+ * <p>
+ * The retention times of each file are first mapped onto those of a reference file, the file with the most
+ * pairs. The pairs of a file that match exactly one pair of the reference by charge, label and m/z, within the
+ * largest expected shift of retention time, are the anchors; the shift of retention time is the running
+ * median of the anchors, interpolated between them. The pairs of all the files are then joined in the order
+ * of decreasing intensity: a pair joins the nearest feature within the m/z and retention time tolerances,
+ * or else starts a new one. The features are kept in a grid, so a pair is compared with the features in a
+ * few nearby cells only, and the alignment takes O(n log n) for n pairs, the log coming from the sorting.
+ */
+public class FeatureAligner {
+
+    // the fewest anchors to correct the retention times of a file, and the anchors in a median;
+    private static final int MIN_ANCHOR_NUM = 10;
+    private static final int ANCHOR_WINDOW = 25;
+
+    /**
+     * A feature, i.e. one pair aligned across the files. It takes the m/z, the retention time and the
+     * intensity of its most intense pair.
+     */
+    public static class Feature extends PrecInfo {
+
+        private static final long serialVersionUID = 1L;
+
+        // the intensity in each file, 0 if the pair is not found in a file;
+        final double[] hArr;
+        int fileNum;
+
+        Feature(PrecInfo seed, int fileIdx, int totalFileNum) {
+            super(seed.mz, seed.h, seed.z, null, seed.rt, seed.labelIdx);
+            hArr = new double[totalFileNum];
+            hArr[fileIdx] = seed.h;
+            fileNum = 1;
+        }
+
+        public double getMz() {
+            return mz;
+        }
+
+        public int getZ() {
+            return z;
+        }
+
+        /**
+         * @return the retention time, on the time scale of the reference file.
+         */
+        public double getRt() {
+            return rt;
+        }
+
+        public double[] getHArr() {
+            return hArr;
+        }
+
+        /**
+         * @return the number of files in which the feature is found.
+         */
+        public int getFileNum() {
+            return fileNum;
+        }
+    }
+
+    /**
+     * Align the pairs of several files.
+     * @param groups the pairs of each file, as given by PairFinderInMS1.group.
+     * @param filenames the files, in the order of the intensities of a feature.
+     * @param errTol the m/z tolerance.
+     * @param isPPM whether the tolerance is in ppm.
+     * @param rtDiffTol the retention time tolerance by minute, after the correction.
+     * @param maxRtShift the largest shift of retention time between two files by minute, 0 for no correction.
+     * @return the features, sorted by m/z.
+     */
+    public static List<Feature> align(Map<String, List<PrecInfo>> groups, String[] filenames, double errTol,
+                                      boolean isPPM, double rtDiffTol, double maxRtShift) {
+        double mzBinWidth = isPPM ? 1000 * errTol / 1E6 : errTol;
+
+        // the reference is the file with the most pairs;
+        int refIdx = -1;
+        for (int i = 0; i < filenames.length; i++) {
+            List<PrecInfo> piList = groups.get(filenames[i]);
+            if (piList != null && (refIdx < 0 || piList.size() > groups.get(filenames[refIdx]).size())) {
+                refIdx = i;
+            }
+        }
+        if (refIdx < 0) {
+            return new ArrayList<>();
+        }
+
+        PrecInfoGrid refGrid = null;
+        if (maxRtShift > 0) {
+            refGrid = new PrecInfoGrid(mzBinWidth, maxRtShift);
+            for (PrecInfo pi : groups.get(filenames[refIdx])) {
+                refGrid.add(pi);
+            }
+        }
+
+        // the pairs of all the files with the corrected retention times, by decreasing intensity;
+        int num = 0;
+        for (String filename : filenames) {
+            List<PrecInfo> piList = groups.get(filename);
+            num += piList == null ? 0 : piList.size();
+        }
+        PrecInfo[] allPiArr = new PrecInfo[num];
+        double[] allHArr = new double[num];
+        int[] fileIdxArr = new int[num];
+        int k = 0;
+        for (int i = 0; i < filenames.length; i++) {
+            List<PrecInfo> piList = groups.get(filenames[i]);
+            if (piList == null) {
+                continue;
+            }
+            double[][] drift = i == refIdx || refGrid == null ? null
+                    : fitRtDrift(piList, refGrid, errTol, isPPM, maxRtShift);
+            for (PrecInfo pi : piList) {
+                PrecInfo cpi = new PrecInfo(pi);
+                if (drift != null) {
+                    cpi.rt += interpolate(drift, pi.rt);
+                }
+                allPiArr[k] = cpi;
+                allHArr[k] = cpi.h;
+                fileIdxArr[k] = i;
+                k++;
+            }
+        }
+        int[] order = sortIndexes(allHArr, num, true);
+
+        // join; a feature keeps the m/z and retention time of its most intense pair, so it never moves in the
+        // grid, and a file keeps its most intense pair in a feature;
+        List<Feature> features = new ArrayList<>();
+        PrecInfoGrid grid = new PrecInfoGrid(mzBinWidth, rtDiffTol);
+        List<PrecInfo> candidates = new ArrayList<>();
+        for (int idx : order) {
+            PrecInfo pi = allPiArr[idx];
+            int fileIdx = fileIdxArr[idx];
+            double err = isPPM ? pi.mz * errTol / 1E6 : errTol;
+            candidates.clear();
+            grid.collect(pi.z, pi.mz, err, pi.rt, rtDiffTol, candidates);
+            Feature nearest = null;
+            double minDist = Double.POSITIVE_INFINITY;
+            for (PrecInfo fpi : candidates) {
+                double mzDiff = Math.abs(pi.mz - fpi.mz);
+                double rtDiff = Math.abs(pi.rt - fpi.rt);
+                if (pi.z == fpi.z && pi.labelIdx == fpi.labelIdx && mzDiff < err && rtDiff <= rtDiffTol) {
+                    double dist = mzDiff / err + (rtDiffTol > 0 ? rtDiff / rtDiffTol : 0);
+                    if (dist < minDist) {
+                        minDist = dist;
+                        nearest = (Feature) fpi;
+                    }
+                }
+            }
+
+            if (nearest == null) {
+                Feature feature = new Feature(pi, fileIdx, filenames.length);
+                features.add(feature);
+                grid.add(feature);
+            } else if (nearest.hArr[fileIdx] == 0) {
+                nearest.hArr[fileIdx] = pi.h;
+                nearest.fileNum++;
+            }
+        }
+
+        features.sort((a, b) -> Double.compare(a.mz, b.mz));
+        return features;
+    }
+
+    /**
+     * Fit the shift of retention time of a file from the reference.
+     * @param piList the pairs of the file.
+     * @param refGrid the pairs of the reference file, in a grid with retention time bins of maxRtShift.
+     * @return the retention times of the knots and the shifts at the knots, or null if there are too few
+     * anchors.
+     */
+    static double[][] fitRtDrift(List<PrecInfo> piList, PrecInfoGrid refGrid, double errTol,
+                                 boolean isPPM, double maxRtShift) {
+        double[] rtArr = new double[piList.size()];
+        double[] shiftArr = new double[piList.size()];
+        int anchorNum = 0;
+        List<PrecInfo> candidates = new ArrayList<>();
+        for (PrecInfo pi : piList) {
+            double err = isPPM ? pi.mz * errTol / 1E6 : errTol;
+            candidates.clear();
+            refGrid.collect(pi.z, pi.mz, err, pi.rt, maxRtShift, candidates);
+            PrecInfo match = null;
+            int matchNum = 0;
+            for (PrecInfo rpi : candidates) {
+                if (rpi.z == pi.z && rpi.labelIdx == pi.labelIdx && Math.abs(rpi.mz - pi.mz) < err
+                        && Math.abs(rpi.rt - pi.rt) <= maxRtShift && rpi != match) {
+                    match = rpi;
+                    matchNum++;
+                }
+            }
+            if (matchNum == 1) {
+                rtArr[anchorNum] = pi.rt;
+                shiftArr[anchorNum] = match.rt - pi.rt;
+                anchorNum++;
+            }
+        }
+        if (anchorNum < MIN_ANCHOR_NUM) {
+            return null;
+        }
+
+        // sort the anchors by retention time;
+        int[] order = sortIndexes(rtArr, anchorNum, false);
+        double[] sortedRtArr = new double[anchorNum];
+        double[] sortedShiftArr = new double[anchorNum];
+        for (int i = 0; i < anchorNum; i++) {
+            sortedRtArr[i] = rtArr[order[i]];
+            sortedShiftArr[i] = shiftArr[order[i]];
+        }
+
+        // a knot per window of anchors, at the median retention time with the median shift, so that the
+        // few wrong anchors are outvoted;
+        int window = Math.min(ANCHOR_WINDOW, anchorNum);
+        int knotNum = (anchorNum + window - 1) / window;
+        double[][] drift = new double[2][knotNum];
+        double[] buf = new double[window];
+        for (int i = 0; i < knotNum; i++) {
+            int start = Math.min(i * window, anchorNum - window);
+            drift[0][i] = sortedRtArr[start + window / 2];
+            System.arraycopy(sortedShiftArr, start, buf, 0, window);
+            Arrays.sort(buf);
+            drift[1][i] = buf[window / 2];
+        }
+        return drift;
+    }
+
+    /**
+     * @return the shift at a retention time, linear between the knots and flat beyond the first and last.
+     */
+    static double interpolate(double[][] drift, double rt) {
+        double[] rtArr = drift[0];
+        double[] shiftArr = drift[1];
+        int pos = Arrays.binarySearch(rtArr, rt);
+        if (pos >= 0) {
+            return shiftArr[pos];
+        }
+        pos = -pos - 1;
+        if (pos == 0) {
+            return shiftArr[0];
+        } else if (pos == rtArr.length) {
+            return shiftArr[rtArr.length - 1];
+        }
+        double ratio = (rt - rtArr[pos - 1]) / (rtArr[pos] - rtArr[pos - 1]);
+        return shiftArr[pos - 1] + ratio * (shiftArr[pos] - shiftArr[pos - 1]);
+    }
+
+    /**
+     * Sort the indexes of the first keys by their keys in a merge sort, keeping the order of equal keys, the
+     * same as Arrays.sort over boxed indexes but on primitive arrays.
+     * @param isDescending whether the keys are sorted in descending order.
+     * @return the indexes of the keys in the sorted order.
+     */
+    private static int[] sortIndexes(double[] keyArr, int num, boolean isDescending) {
+        int[] idxArr = new int[num];
+        for (int i = 0; i < num; i++) {
+            idxArr[i] = i;
+        }
+        int[] buf = new int[num];
+        for (int width = 1; width < num; width <<= 1) {
+            for (int lo = 0; lo < num; lo += width << 1) {
+                int mid = Math.min(lo + width, num);
+                int hi = Math.min(lo + (width << 1), num);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    // the left run wins the ties;
+                    boolean isLeft = j >= hi;
+                    if (!isLeft && i < mid) {
+                        int cmp = Double.compare(keyArr[idxArr[i]], keyArr[idxArr[j]]);
+                        isLeft = (isDescending ? -cmp : cmp) <= 0;
+                    }
+                    buf[k] = isLeft ? idxArr[i++] : idxArr[j++];
+                }
+            }
+            int[] tmp = idxArr;
+            idxArr = buf;
+            buf = tmp;
+        }
+        return idxArr;
+    }
+
+    /**
+     * Write the features as a matrix, one row per feature and one intensity column per file.
+     * @throws IOException
+     */
+    public static void write(List<Feature> features, String[] filenames, File outFile) throws IOException {
+        write(features, filenames, null, outFile);
+    }
+
+    /**
+     * Write the features as a matrix, with the label of each feature if there are several labels.
+     * @param labels the labels searched, or null.
+     * @throws IOException
+     */
+    public static void write(List<Feature> features, String[] filenames, LabelSet labels, File outFile)
+            throws IOException {
+        boolean isMultiLabel = labels != null && labels.getLabelNum() > 1;
+        BufferedWriter bw = new BufferedWriter(new FileWriter(outFile));
+        StringBuilder sb = new StringBuilder(isMultiLabel ? "feature,m/z,z,label,rt,files" : "feature,m/z,z,rt,files");
+        for (String filename : filenames) {
+            sb.append(',').append(filename);
+        }
+        bw.write(sb.append('\n').toString());
+        for (int i = 0; i < features.size(); i++) {
+            Feature feature = features.get(i);
+            sb.setLength(0);
+            sb.append(i + 1).append(',').append(feature.mz).append(',').append(feature.z).append(',');
+            if (isMultiLabel) {
+                sb.append(labels.getName(feature.labelIdx)).append(',');
+            }
+            sb.append(feature.rt).append(',').append(feature.fileNum);
+            for (double h : feature.hArr) {
+                sb.append(',').append(h);
+            }
+            bw.write(sb.append('\n').toString());
+        }
+        bw.close();
+    }
+
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.app;
+
+import edu.upenn.sas.matthews.ms.basics.Constants;
+import edu.upenn.sas.matthews.ms.basics.protein.IonType;
+import edu.upenn.sas.matthews.ms.basics.protein.Peptide;
+import edu.upenn.sas.matthews.ms.basics.spec.MassSpectrum;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An inverted index of the fragment ions of several peptides: the m/z values of all the ions, sorted, each
+ * pointing back to its peptide, ion series and ion number. A series is one ion type at one charge, e.g. the
+ * doubly charged b ions. A spectrum is matched against every ion of every peptide by one pass over the
+ * sorted m/z values, instead of one search per peptide and series.
+ */
+class FragmentIndex {
+
+    private final Peptide[] peptides;
+    private final IonType[] ionTypes;
+    private final int maxCharge;
+    private final double[] mzArr;
+    private final int[] pepIdxArr;
+    private final byte[] chargeArr;
+    // the entries of each peptide in the order of its ladder, i.e. by series then by ion number;
+    private final int[][] entryIdxArr;
+
+    /**
+     * Build the index of the given fragment ions of the peptides.
+     * @param peptideList the peptides.
+     * @param ionTypes the types of the fragment ions.
+     * @param maxCharge the highest charge of the fragment ions, 1 for singly charged ions only.
+     */
+    FragmentIndex(List<Peptide> peptideList, IonType[] ionTypes, int maxCharge) {
+        this.peptides = peptideList.toArray(new Peptide[0]);
+        this.ionTypes = ionTypes.clone();
+        this.maxCharge = Math.max(1, maxCharge);
+        int seriesNum = getSeriesNum();
+
+        // the ladder of a peptide, by series then by ion number;
+        double[][] ladderArr = new double[peptides.length][];
+        int num = 0;
+        for (int i = 0; i < peptides.length; i++) {
+            int ionNum = peptides[i].getResArr().length - 1;
+            ladderArr[i] = new double[seriesNum * ionNum];
+            for (int t = 0; t < ionTypes.length; t++) {
+                double[] ions = peptides[i].getFragIonMassArr(ionTypes[t]);
+                for (int c = 1; c <= this.maxCharge; c++) {
+                    int offset = (t * this.maxCharge + c - 1) * ionNum;
+                    for (int j = 0; j < ionNum; j++) {
+                        ladderArr[i][offset + j] = (ions[j] + (c - 1) * Constants.PROTON_MASS) / c;
+                    }
+                }
+            }
+            num += ladderArr[i].length;
+        }
+
+        // sort the entries by m/z, ties by peptide and ladder, so the same list always gives the same index;
+        long[] keys = new long[num];
+        double[] allMzArr = new double[num];
+        int k = 0;
+        for (int i = 0; i < peptides.length; i++) {
+            for (int j = 0; j < ladderArr[i].length; j++) {
+                allMzArr[k] = ladderArr[i][j];
+                keys[k] = ((long) i << 32) | j;
+                k++;
+            }
+        }
+        Integer[] order = new Integer[num];
+        for (int i = 0; i < num; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int cmp = Double.compare(allMzArr[a], allMzArr[b]);
+            return cmp != 0 ? cmp : Long.compare(keys[a], keys[b]);
+        });
+
+        mzArr = new double[num];
+        pepIdxArr = new int[num];
+        chargeArr = new byte[num];
+        entryIdxArr = new int[peptides.length][];
+        for (int i = 0; i < peptides.length; i++) {
+            entryIdxArr[i] = new int[ladderArr[i].length];
+        }
+        for (int i = 0; i < num; i++) {
+            int src = order[i];
+            int pepIdx = (int) (keys[src] >>> 32);
+            int ladderIdx = (int) keys[src];
+            int ionNum = ladderArr[pepIdx].length / seriesNum;
+            mzArr[i] = allMzArr[src];
+            pepIdxArr[i] = pepIdx;
+            chargeArr[i] = (byte) (ladderIdx / ionNum % this.maxCharge + 1);
+            entryIdxArr[pepIdx][ladderIdx] = i;
+        }
+    }
+
+    /**
+     * Match all the fragment ions against a spectrum.
+     * @param spec the spectrum.
+     * @param errTol the m/z tolerance.
+     * @param isPPM whether the tolerance is in ppm.
+     * @param posArr the array of size() to receive the position of the closest peak of each entry, or -1.
+     */
+    void match(MassSpectrum spec, double errTol, boolean isPPM, int[] posArr) {
+        spec.searchMzBatch(mzArr, errTol, isPPM, posArr);
+    }
+
+    /**
+     * @return the number of entries, i.e. the fragment ions of all the peptides.
+     */
+    int size() {
+        return mzArr.length;
+    }
+
+    int getPeptideNum() {
+        return peptides.length;
+    }
+
+    Peptide getPeptide(int pepIdx) {
+        return peptides[pepIdx];
+    }
+
+    int getPeptideIndex(int entryIdx) {
+        return pepIdxArr[entryIdx];
+    }
+
+    int getCharge(int entryIdx) {
+        return chargeArr[entryIdx];
+    }
+
+    /**
+     * @return the number of ion series, i.e. the ion types times the charges.
+     */
+    int getSeriesNum() {
+        return ionTypes.length * maxCharge;
+    }
+
+    /**
+     * @return the number of ions of a peptide in each series.
+     */
+    int getIonNum(int pepIdx) {
+        return entryIdxArr[pepIdx].length / getSeriesNum();
+    }
+
+    int getMaxIonNum() {
+        int ret = 0;
+        for (int i = 0; i < peptides.length; i++) {
+            ret = Math.max(ret, getIonNum(i));
+        }
+        return ret;
+    }
+
+    /**
+     * @return the entry of the ionIdx-th ion in a series of a peptide.
+     */
+    int getEntryIndex(int pepIdx, int series, int ionIdx) {
+        return entryIdxArr[pepIdx][series * getIonNum(pepIdx) + ionIdx];
+    }
+
+    /**
+     * Get the label of an ion, e.g. y5 for the singly charged y5 ion, or b3-H2O[2+] for the doubly charged
+     * b3 ion with a water loss.
+     * @param series the ion series.
+     * @param ionIdx the ion number minus 1.
+     * @return the label.
+     */
+    String getLabel(int series, int ionIdx) {
+        IonType ionType = ionTypes[series / maxCharge];
+        int charge = series % maxCharge + 1;
+        String label;
+        switch (ionType) {
+            case A:
+                label = "a" + (ionIdx + 1);
+                break;
+            case B:
+                label = "b" + (ionIdx + 1);
+                break;
+            case B_WATER_LOSS:
+                label = "b" + (ionIdx + 1) + "-H2O";
+                break;
+            case B_AMMONIA_LOSS:
+                label = "b" + (ionIdx + 1) + "-NH3";
+                break;
+            case Y_WATER_LOSS:
+                label = "y" + (ionIdx + 1) + "-H2O";
+                break;
+            case Y_AMMONIA_LOSS:
+                label = "y" + (ionIdx + 1) + "-NH3";
+                break;
+            default:
+                label = "y" + (ionIdx + 1);
+        }
+
+        return charge > 1 ? label + "[" + charge + "+]" : label;
+    }
+
+}
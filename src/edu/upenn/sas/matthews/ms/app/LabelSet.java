@@ -0,0 +1,134 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.app;
+
+import java.util.Arrays;
+
+/**
+ * The labels searched together by PairFinderInMS1. A label is the mass differences of its heavier channels
+ * from the light one, e.g. 6.0138 for a light/heavy pair, or 4.0251:8.0502 for a light/medium/heavy
+ * triplet. The channels of all the labels are kept as one list of distinct mass differences, so that a
+ * partner shared by several labels is searched once.
+ */
+public class LabelSet {
+
+    private final double[][] labelArr;
+    // the distinct mass differences of all the channels, in ascending order;
+    private final double[] massDiffArr;
+    // the index in massDiffArr of each channel of each label;
+    private final int[][] channelArr;
+
+    /**
+     * Parse the labels, separated by commas, each with its channels separated by colons, e.g.
+     * "6.0138,4.0251:8.0502".
+     * @param str the labels.
+     * @return the labels.
+     * @throws IllegalArgumentException if a mass difference is not a positive number.
+     */
+    public static LabelSet parse(String str) {
+        String[] labelStrArr = str.split(",");
+        double[][] labelArr = new double[labelStrArr.length][];
+        for (int i = 0; i < labelStrArr.length; i++) {
+            String[] channelStrArr = labelStrArr[i].trim().split(":");
+            labelArr[i] = new double[channelStrArr.length];
+            for (int j = 0; j < channelStrArr.length; j++) {
+                double massDiff;
+                try {
+                    massDiff = Double.parseDouble(channelStrArr[j].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid label mass difference " + channelStrArr[j], e);
+                }
+                if (!(massDiff > 0)) {
+                    throw new IllegalArgumentException("The label mass difference " + channelStrArr[j]
+                            + " is not positive");
+                }
+                labelArr[i][j] = massDiff;
+            }
+        }
+        return new LabelSet(labelArr);
+    }
+
+    /**
+     * Get the labels.
+     * @param labelArr the mass differences of the heavier channels of each label from its light channel.
+     */
+    public LabelSet(double[]... labelArr) {
+        this.labelArr = labelArr.clone();
+        channelArr = new int[labelArr.length][];
+        double[] allMassDiffArr = new double[0];
+        for (double[] massDiffs : labelArr) {
+            int len = allMassDiffArr.length;
+            allMassDiffArr = Arrays.copyOf(allMassDiffArr, len + massDiffs.length);
+            System.arraycopy(massDiffs, 0, allMassDiffArr, len, massDiffs.length);
+        }
+        Arrays.sort(allMassDiffArr);
+        int num = 0;
+        for (int i = 0; i < allMassDiffArr.length; i++) {
+            if (i == 0 || allMassDiffArr[i] != allMassDiffArr[num - 1]) {
+                allMassDiffArr[num++] = allMassDiffArr[i];
+            }
+        }
+        massDiffArr = Arrays.copyOf(allMassDiffArr, num);
+
+        for (int i = 0; i < labelArr.length; i++) {
+            channelArr[i] = new int[labelArr[i].length];
+            for (int j = 0; j < labelArr[i].length; j++) {
+                channelArr[i][j] = Arrays.binarySearch(massDiffArr, labelArr[i][j]);
+            }
+        }
+    }
+
+    public int getLabelNum() {
+        return labelArr.length;
+    }
+
+    /**
+     * @return the name of a label, i.e. its mass differences separated by colons.
+     */
+    public String getName(int labelIdx) {
+        StringBuilder sb = new StringBuilder();
+        for (double massDiff : labelArr[labelIdx]) {
+            sb.append(sb.length() > 0 ? ":" : "").append(massDiff);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the number of distinct mass differences of all the channels.
+     */
+    int getMassDiffNum() {
+        return massDiffArr.length;
+    }
+
+    double getMassDiff(int massDiffIdx) {
+        return massDiffArr[massDiffIdx];
+    }
+
+    /**
+     * @return the index of the mass difference of each heavier channel of a label.
+     */
+    int[] getChannels(int labelIdx) {
+        return channelArr[labelIdx];
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labelArr.length; i++) {
+            sb.append(i > 0 ? "," : "").append(getName(i));
+        }
+        return sb.toString();
+    }
+
+}
@@ -18,16 +18,23 @@ import edu.upenn.sas.matthews.ms.basics.Constants;
 import edu.upenn.sas.matthews.ms.basics.protein.IonType;
 import edu.upenn.sas.matthews.ms.basics.protein.Peptide;
 import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+import edu.upenn.sas.matthews.ms.io.MSnFileIndex;
 import edu.upenn.sas.matthews.ms.io.MSnFileReader;
+import edu.upenn.sas.matthews.ms.io.ScanFilter;
+import edu.upenn.sas.matthews.ms.io.SpectrumPipeline;
 import edu.upenn.sas.matthews.ms.view.Annotation;
-import edu.upenn.sas.matthews.ms.view.MSAnnotator;
+import edu.upenn.sas.matthews.ms.view.SpectrumPlotWriter;
 import jargs.gnu.CmdLineParser;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.*;
 import java.text.AttributedString;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class MS2SpecFinder {
 
@@ -40,10 +47,20 @@ public class MS2SpecFinder {
         CmdLineParser.Option ms2FolderPathArg = parser.addStringOption('f', "MS2FolderPath");
         CmdLineParser.Option fragErrTolArg = parser.addDoubleOption('e', "FragmentErrorTolerance");
         CmdLineParser.Option isPPMArg = parser.addBooleanOption("isPPM");
+        CmdLineParser.Option precErrTolArg = parser.addDoubleOption('r', "PrecursorMassTolerance");
         CmdLineParser.Option relaIntenThresholdArg = parser.addDoubleOption('i', "RelaIntenThreshold");
         CmdLineParser.Option specifiedPeptideArg = parser.addStringOption('p', "SpecifiedPeptide");
+        CmdLineParser.Option peptideListPathArg = parser.addStringOption('l', "PeptideListFile");
+        CmdLineParser.Option ionTypesArg = parser.addStringOption('s', "IonTypes");
+        CmdLineParser.Option maxFragZArg = parser.addIntegerOption('z', "MaxFragmentCharge");
         CmdLineParser.Option minMatchingNumArg = parser.addIntegerOption('m', "MinimumMatchingPeaks");
         CmdLineParser.Option maxMatchingRelaHThresArg = parser.addIntegerOption('t', "MaximumMatchingIntensityThreshold");
+        CmdLineParser.Option isMappedArg = parser.addBooleanOption("mmap");
+        CmdLineParser.Option isCachedArg = parser.addBooleanOption("cache");
+        CmdLineParser.Option threadNumArg = parser.addIntegerOption('n', "ThreadNum");
+        CmdLineParser.Option workerNumArg = parser.addIntegerOption('w', "WorkerNum");
+        CmdLineParser.Option isNoPlotArg = parser.addBooleanOption("noPlot");
+        CmdLineParser.Option plotThreadNumArg = parser.addIntegerOption('g', "PlotThreadNum");
 
         try {
             parser.parse(args);
@@ -55,10 +72,21 @@ public class MS2SpecFinder {
         String ms2FolderPath = (String) parser.getOptionValue(ms2FolderPathArg, "E:\\msdata\\megan\\20200203\\20200221_KBV140");
         Double fragErrTol = (Double) parser.getOptionValue(fragErrTolArg, 0.2);
         Boolean isPPM = (Boolean) parser.getOptionValue(isPPMArg, false);
+        // a negative tolerance for an open search;
+        Double precErrTol = (Double) parser.getOptionValue(precErrTolArg, -1.0);
         Double relaIntenThreshold = (Double) parser.getOptionValue(relaIntenThresholdArg, 2.0);
         String specifiedPeptide = (String) parser.getOptionValue(specifiedPeptideArg, "Q(+.98)GCTVTVSDLYAM(-48.00)NLEPR");
+        String peptideListPath = (String) parser.getOptionValue(peptideListPathArg);
+        String ionTypesStr = (String) parser.getOptionValue(ionTypesArg, "Y");
+        Integer maxFragZ = (Integer) parser.getOptionValue(maxFragZArg, 1);
         Integer minMatchingNum = (Integer) parser.getOptionValue(minMatchingNumArg, 4);
         Integer maxMatchingRelaHThres = (Integer) parser.getOptionValue(maxMatchingRelaHThresArg, 2);
+        Boolean isMapped = (Boolean) parser.getOptionValue(isMappedArg, false);
+        Boolean isCached = (Boolean) parser.getOptionValue(isCachedArg, false);
+        Integer threadNum = (Integer) parser.getOptionValue(threadNumArg, 1);
+        Integer workerNum = (Integer) parser.getOptionValue(workerNumArg, 1);
+        Boolean isNoPlot = (Boolean) parser.getOptionValue(isNoPlotArg, false);
+        Integer plotThreadNum = (Integer) parser.getOptionValue(plotThreadNumArg, 2);
 
         File ms1Dir = new File(ms2FolderPath);
         if (!ms1Dir.exists()) {
@@ -66,139 +94,361 @@ public class MS2SpecFinder {
             System.exit(1);
         }
 
-        print_params(ms2FolderPath, fragErrTol, isPPM, relaIntenThreshold, specifiedPeptide, minMatchingNum,
-                maxMatchingRelaHThres);
+        String[] ionTypeNames = ionTypesStr.split(",");
+        IonType[] ionTypes = new IonType[ionTypeNames.length];
+        for (int i = 0; i < ionTypeNames.length; i++) {
+            try {
+                ionTypes[i] = IonType.valueOf(ionTypeNames[i].trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown ion type " + ionTypeNames[i] + ", choose from "
+                        + Arrays.toString(IonType.values()));
+                System.exit(1);
+            }
+        }
+
+        print_params(ms2FolderPath, fragErrTol, isPPM, precErrTol, relaIntenThreshold, specifiedPeptide,
+                peptideListPath, ionTypesStr, maxFragZ, minMatchingNum, maxMatchingRelaHThres, isMapped, isCached,
+                threadNum, workerNum, isNoPlot, plotThreadNum);
         File indir = new File(ms2FolderPath);
         final String pattern = ".ms2";
-        final Peptide peptide = new Peptide(specifiedPeptide);
-        double peptideMH = peptide.getMass() + Constants.WATER_MASS + Constants.PROTON_MASS;
-        double[] yIons = peptide.getFragIonMassArr(IonType.Y);
+
+        // with a peptide list, every spectrum is scored against all the peptides at once;
+        List<Peptide> peptideList = new ArrayList<>();
+        boolean isMultiple = peptideListPath != null;
+        if (isMultiple) {
+            peptideList = readPeptides(new File(peptideListPath));
+        } else {
+            peptideList.add(new Peptide(specifiedPeptide));
+        }
+        // the ladders of all ion types and charges, so every spectrum is matched against them in one pass;
+        FragmentIndex index = new FragmentIndex(peptideList, ionTypes, maxFragZ);
+        double[] peptideMHArr = new double[peptideList.size()];
+        for (int i = 0; i < peptideMHArr.length; i++) {
+            peptideMHArr[i] = peptideList.get(i).getMass() + Constants.WATER_MASS + Constants.PROTON_MASS;
+        }
+        int maxIonNum = index.getMaxIonNum();
+        int seriesNum = index.getSeriesNum();
+        String maxMatchedCol = ionTypes.length == 1 && ionTypes[0] == IonType.Y && seriesNum == 1
+                ? "MaxMatchedYIonIntensity" : "MaxMatchedIonIntensity";
         float errTol = (float) fragErrTol.doubleValue();
         float relaIntenThres = (float) relaIntenThreshold.doubleValue();
 
         BufferedWriter bw = new BufferedWriter(new FileWriter(new File(indir, "Ms2SpecFinderRslt.csv")));
-        bw.write("File,Scan#,PrecMz,PrecZ,PrecInten,PrecMH,RT,MaxMatchedYIonIntensity");
-        for (int i = 0; i < yIons.length; i++) {
-            bw.write(",y" + (i + 1));
+        bw.write(isMultiple ? "File,Scan#,Peptide," : "File,Scan#,");
+        bw.write("PrecMz,PrecZ,PrecInten,PrecMH,RT," + maxMatchedCol);
+        for (int series = 0; series < seriesNum; series++) {
+            for (int i = 0; i < maxIonNum; i++) {
+                bw.write("," + index.getLabel(series, i));
+            }
         }
         bw.write(",TotalMatchedIntensity,MassDiff\n");
 
-        System.out.print("File,Scan#,PrecMz,PrecZ,PrecInten,PrecMH,RT,MaxMatchedYIonIntensity");
-        for (int i = 0; i < yIons.length; i++) {
-            System.out.print("\ty" + (i + 1));
+        System.out.print(isMultiple ? "File,Scan#,Peptide," : "File,Scan#,");
+        System.out.print("PrecMz,PrecZ,PrecInten,PrecMH,RT," + maxMatchedCol);
+        for (int series = 0; series < seriesNum; series++) {
+            for (int i = 0; i < maxIonNum; i++) {
+                System.out.print("\t" + index.getLabel(series, i));
+            }
         }
         System.out.println("TotalMatchedIntensity\tMassDiff");
 
         FileFilter ff = file -> file.isFile() && file.getName().endsWith(pattern);
         File[] files = indir.listFiles(ff);
+
+        // the matched spectra are plotted in the background, the rows do not wait for the PNG files;
+        SpectrumPlotWriter plotWriter = isNoPlot ? null : new SpectrumPlotWriter(plotThreadNum);
+
+        // search the files concurrently, and output their rows in the order of the files;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threadNum));
+        List<Future<String[]>> futures = new ArrayList<>();
         for (File file : files) {
-            MSnFileReader mfr = new MSnFileReader(file.getAbsolutePath());
-            while (mfr.hasNext()) {
-                MSnSpectrum spec = mfr.next();
-//                if (spec.getScanNumber() != 9215) continue;
-                double[] mzArr = spec.getMzArr();
-                double[] hArr = spec.getIntenArr();
-                double maxH = 0;
-                int len = mzArr.length;
-                for (int i = 0; i < len; i++) {
-                    if (hArr[i] > maxH) {
-                        maxH = hArr[i];
+            futures.add(pool.submit(() -> search(file, index, peptideMHArr, isMultiple, errTol, isPPM, precErrTol,
+                    relaIntenThres, minMatchingNum, maxMatchingRelaHThres, isMapped, isCached, workerNum,
+                    plotWriter)));
+        }
+        try {
+            for (Future<String[]> future : futures) {
+                String[] rows = future.get();
+                bw.write(rows[0]);
+                System.out.print(rows[1]);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Failed in processing MS2 files", e);
+        } finally {
+            pool.shutdownNow();
+            bw.close();
+            if (plotWriter != null) {
+                plotWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Read a peptide list file, one peptide per line; blank lines and lines starting with '#' are skipped.
+     * @return the peptides in the order of the file.
+     * @throws IOException
+     */
+    private static List<Peptide> readPeptides(File file) throws IOException {
+        if (!file.exists()) {
+            System.err.println("The peptide list file " + file + " does not exist!");
+            System.exit(1);
+        }
+
+        List<Peptide> ret = new ArrayList<>();
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        String line;
+        int lineNum = 0;
+        while ((line = br.readLine()) != null) {
+            lineNum++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Peptide peptide = new Peptide(line);
+            if (peptide.getResArr() == null || peptide.getResArr().length < 2) {
+                System.err.println("Invalid peptide " + line + " at line " + lineNum + " of " + file);
+                System.exit(1);
+            }
+            ret.add(peptide);
+        }
+        br.close();
+
+        if (ret.isEmpty()) {
+            System.err.println("No peptide is found in " + file);
+            System.exit(1);
+        }
+        return ret;
+    }
+
+    /**
+     * Search the spectra of an MS2 file for the fragment ions of the peptides, and plot the matched spectra.
+     * @return the rows of the matched spectra, in CSV and in tab-separated format for stdout.
+     * @throws IOException
+     */
+    private static String[] search(File file, FragmentIndex index, double[] peptideMHArr, boolean isMultiple,
+                                   float errTol, boolean isPPM, double precErrTol, float relaIntenThres,
+                                   int minMatchingNum, int maxMatchingRelaHThres, boolean isMapped,
+                                   boolean isCached, int workerNum, SpectrumPlotWriter plotWriter)
+            throws IOException {
+        StringBuilder csvRows = new StringBuilder();
+        StringBuilder outRows = new StringBuilder();
+        MSnFileReader mfr = new MSnFileReader(file.getAbsolutePath(), isMapped, isCached);
+        try {
+            // only MS2 scans are searched, the peaks of other scans are not parsed;
+            ScanFilter scanFilter = new ScanFilter();
+            scanFilter.setMsStage(2);
+            mfr.setFilter(scanFilter);
+            SpectrumPipeline.Receiver<String[]> receiver = rows -> {
+                csvRows.append(rows[0]);
+                outRows.append(rows[1]);
+            };
+            if (precErrTol >= 0) {
+                // look up the spectra within the precursor windows in the scan index, and read only those;
+                MSnFileIndex idx = mfr.getIndex();
+                boolean[] isSelected = new boolean[idx.size()];
+                for (double peptideMH : peptideMHArr) {
+                    for (int pos : idx.findByPrecMH(peptideMH - precErrTol, peptideMH + precErrTol)) {
+                        isSelected[pos] = true;
                     }
                 }
-
-                double[] relaHArr = new double[len];
-                for (int i = 0; i < len; i++) {
-                    relaHArr[i] = hArr[i] / maxH * 100;
+                for (int i = 0; i < isSelected.length; i++) {
+                    if (!isSelected[i]) {
+                        continue;
+                    }
+                    String[] rows = search(mfr.readScan(idx.getScanNumber(i)), file, index, peptideMHArr,
+                            isMultiple, errTol, isPPM, precErrTol, relaIntenThres, minMatchingNum,
+                            maxMatchingRelaHThres, plotWriter);
+                    if (rows != null) {
+                        receiver.receive(rows);
+                    }
                 }
+            } else {
+                // parse and score the spectra concurrently, or one by one with a single worker;
+                SpectrumPipeline.run(mfr, workerNum, spec -> search(spec, file, index, peptideMHArr, isMultiple,
+                        errTol, isPPM, precErrTol, relaIntenThres, minMatchingNum, maxMatchingRelaHThres,
+                        plotWriter), receiver);
+            }
+        } finally {
+            mfr.close();
+        }
+
+        return new String[] {csvRows.toString(), outRows.toString()};
+    }
+
+    /**
+     * Search a spectrum for the fragment ions of the peptides, and plot the spectrum for each matched peptide
+     * unless the plot writer is null. Fragment ions of charges up to the precursor charge minus 1 are matched.
+     * @return the rows of the matched peptides in CSV and in tab-separated format, or null if none is matched.
+     * @throws IOException
+     */
+    private static String[] search(MSnSpectrum spec, File file, FragmentIndex index, double[] peptideMHArr,
+                                   boolean isMultiple, float errTol, boolean isPPM, double precErrTol,
+                                   float relaIntenThres, int minMatchingNum, int maxMatchingRelaHThres,
+                                   SpectrumPlotWriter plotWriter) throws IOException {
+        double mz = spec.getPrecMz();
+        int z = spec.getPrecZ();
+        double mH = (mz - Constants.PROTON_MASS) * z + Constants.PROTON_MASS;
+
+        // with a precursor tolerance, only the peptides within the window are scored;
+        int pepNum = index.getPeptideNum();
+        boolean[] isInWindow = new boolean[pepNum];
+        boolean hasCandidate = false;
+        for (int pepIdx = 0; pepIdx < pepNum; pepIdx++) {
+            double peptideMH = peptideMHArr[pepIdx];
+            isInWindow[pepIdx] = precErrTol < 0
+                    || (mH >= peptideMH - precErrTol && mH <= peptideMH + precErrTol);
+            hasCandidate |= isInWindow[pepIdx];
+        }
+        if (!hasCandidate) {
+            return null;
+        }
+
+        double[] mzArr = spec.getMzArr();
+        double[] hArr = spec.getIntenArr();
+        double maxH = 0;
+        int len = mzArr.length;
+        for (int i = 0; i < len; i++) {
+            if (hArr[i] > maxH) {
+                maxH = hArr[i];
+            }
+        }
+
+        double[] relaHArr = new double[len];
+        for (int i = 0; i < len; i++) {
+            relaHArr[i] = hArr[i] / maxH * 100;
+        }
+
+        // the ions of all the peptides are sorted in the index, so they are matched in one pass over the peaks;
+        int[] posArr = new int[index.size()];
+        index.match(spec, errTol, isPPM, posArr);
+
+        int maxFragZ = Math.max(1, z - 1);
+        int[] matchNumArr = new int[pepNum];
+        double[] maxMatchedHArr = new double[pepNum];
+        for (int i = 0; i < posArr.length; i++) {
+            int pos = posArr[i];
+            if (pos < 0 || index.getCharge(i) > maxFragZ || relaHArr[pos] < relaIntenThres) {
+                continue;
+            }
+            int pepIdx = index.getPeptideIndex(i);
+            if (!isInWindow[pepIdx]) {
+                continue;
+            }
+            matchNumArr[pepIdx]++;
+            if (maxMatchedHArr[pepIdx] < relaHArr[pos]) {
+                maxMatchedHArr[pepIdx] = relaHArr[pos];
+            }
+        }
+
+        StringBuilder csvRows = new StringBuilder();
+        StringBuilder outRows = new StringBuilder();
+        for (int pepIdx = 0; pepIdx < pepNum; pepIdx++) {
+            double maxMatchedH = maxMatchedHArr[pepIdx];
+            if (!isInWindow[pepIdx] || matchNumArr[pepIdx] < minMatchingNum
+                    || maxMatchedH <= maxMatchingRelaHThres) {
+                continue;
+            }
 
-                double[] matchedIons = new double[yIons.length];
-                double maxMatchedH = 0;
-                int matchNum = 0;
-                ArrayList<Annotation> alist = new ArrayList<>();
-                for (int ionIdx = 0; ionIdx < yIons.length; ionIdx++) {
-                    double ion = yIons[ionIdx];
-                    int pos = spec.searchMz(ion, errTol, isPPM);
-                    if (pos >= 0) {
-                        if (relaHArr[pos] < relaIntenThres) {
-                            continue;
-                        }
-                        matchNum++;
-                        matchedIons[ionIdx] = relaHArr[pos];
-                        if (maxMatchedH < relaHArr[pos]) {
-                            maxMatchedH = relaHArr[pos];
-                        }
-
-                        AttributedString as = new AttributedString("y" + (ionIdx + 1));
-                        alist.add(new Annotation(mzArr[pos], relaHArr[pos], as, false, false));
-                    } else {
-                        matchedIons[ionIdx] = 0;
+            // the matched intensities by series then by ion number;
+            int seriesNum = index.getSeriesNum();
+            int ionNum = index.getIonNum(pepIdx);
+            double[] matchedIons = new double[seriesNum * ionNum];
+            ArrayList<Annotation> alist = new ArrayList<>();
+            for (int series = 0; series < seriesNum; series++) {
+                for (int ionIdx = 0; ionIdx < ionNum; ionIdx++) {
+                    int entryIdx = index.getEntryIndex(pepIdx, series, ionIdx);
+                    int pos = posArr[entryIdx];
+                    if (pos < 0 || index.getCharge(entryIdx) > maxFragZ || relaHArr[pos] < relaIntenThres) {
+                        continue;
                     }
+                    matchedIons[series * ionNum + ionIdx] = relaHArr[pos];
+                    AttributedString as = new AttributedString(index.getLabel(series, ionIdx));
+                    alist.add(new Annotation(mzArr[pos], relaHArr[pos], as, false, false));
                 }
+            }
 
-                if (matchNum >= minMatchingNum && maxMatchedH > maxMatchingRelaHThres) {
-                    double mz = spec.getPrecMz();
-                    int z = spec.getPrecZ();
-                    double mH = (mz - Constants.PROTON_MASS) * z + Constants.PROTON_MASS;
-                    bw.write(file.getName() + "," + spec.getScanNumber()
-                            + "," + mz + "," + z + "," + spec.getTic() + "," + mH + "," + spec.getRt()
-                            + "," + maxMatchedH + arr2StrComma(matchedIons) + "," + getSum(matchedIons)
-                            + "," + (mH - peptideMH) + "\n");
-                    System.out.println(file.getName() + "\t" + spec.getScanNumber()
-                            + "\t" + mz + "\t" + z + "\t" + spec.getTic() + "\t" + mH + "\t" + spec.getRt()
-                            + "\t" + maxMatchedH + arr2Str(matchedIons) + "\t" + getSum(matchedIons)
-                            + "\t" + + (mH - peptideMH));
-                    BufferedImage bi = new BufferedImage(2000, 600, BufferedImage.TYPE_INT_BGR);
-                    MSAnnotator msv = new MSAnnotator();
-                    msv.drawSpectrum(bi, mz, z, mzArr, relaHArr, alist);
-                    ImageIO.write(bi, "png", new File(file.getParent(),
-                            file.getName().substring(0, file.getName().lastIndexOf('.'))
-                                    + "_scan_" + spec.getScanNumber() + "_mz_" + mz + "_z_" + z + ".png"));
-                }
+            double peptideMH = peptideMHArr[pepIdx];
+            int maxIonNum = index.getMaxIonNum();
+            String name = isMultiple ? index.getPeptide(pepIdx).toString() : null;
+            csvRows.append(file.getName() + "," + spec.getScanNumber() + (isMultiple ? "," + name : "")
+                    + "," + mz + "," + z + "," + spec.getTic() + "," + mH + "," + spec.getRt()
+                    + "," + maxMatchedH + ions2Str(matchedIons, seriesNum, maxIonNum, ",")
+                    + "," + getSum(matchedIons) + "," + (mH - peptideMH) + "\n");
+            outRows.append(file.getName() + "\t" + spec.getScanNumber() + (isMultiple ? "\t" + name : "")
+                    + "\t" + mz + "\t" + z + "\t" + spec.getTic() + "\t" + mH + "\t" + spec.getRt()
+                    + "\t" + maxMatchedH + ions2Str(matchedIons, seriesNum, maxIonNum, "\t")
+                    + "\t" + getSum(matchedIons) + "\t" + + (mH - peptideMH) + System.lineSeparator());
+            if (plotWriter != null) {
+                plotWriter.submit(new File(file.getParent(),
+                        file.getName().substring(0, file.getName().lastIndexOf('.'))
+                                + "_scan_" + spec.getScanNumber() + (isMultiple ? "_pep_" + (pepIdx + 1) : "")
+                                + "_mz_" + mz + "_z_" + z + ".png"), mz, z, mzArr, relaHArr, alist);
             }
-            mfr.close();
         }
-        bw.close();
+
+        return csvRows.length() > 0 ? new String[] {csvRows.toString(), outRows.toString()} : null;
     }
 
-    private static void print_params(String ms2FolderPath, double fragErrTol, boolean isPPM, double relaIntenThreshold,
-                                     String specifiedPeptide, int minMatchingNum, int maxMatchingRelaHThres) {
+    private static void print_params(String ms2FolderPath, double fragErrTol, boolean isPPM, double precErrTol,
+                                     double relaIntenThreshold,
+                                     String specifiedPeptide, String peptideListPath, String ionTypes,
+                                     int maxFragZ, int minMatchingNum, int maxMatchingRelaHThres,
+                                     boolean isMapped, boolean isCached, int threadNum, int workerNum,
+                                     boolean isNoPlot, int plotThreadNum) {
         System.out.println("Parameters specified:"
                 + "\n\tMS2_Folder_Path: " + ms2FolderPath
                 + "\n\tFragment_Error_Tolerance: " + fragErrTol
                 + "\n\tisPPM: " + isPPM
+                + "\n\tPrecursor_Mass_Tolerance: " + (precErrTol < 0 ? "-" : precErrTol + " Da")
                 + "\n\tRelative_Intensity_Threshold: " + relaIntenThreshold
-                + "\n\tSpecifiedPeptide: " + specifiedPeptide
+                + "\n\tSpecifiedPeptide: " + (peptideListPath == null ? specifiedPeptide : "-")
+                + "\n\tPeptideListFile: " + (peptideListPath == null ? "-" : peptideListPath)
+                + "\n\tIonTypes: " + ionTypes
+                + "\n\tMaxFragmentCharge: " + maxFragZ
                 + "\n\tMinMatchingPeaksNumber: " + minMatchingNum
-                + "\n\tMaxMatchingRelaIntenThres: " + maxMatchingRelaHThres + "\n");
+                + "\n\tMaxMatchingRelaIntenThres: " + maxMatchingRelaHThres
+                + "\n\tMemoryMappedReading: " + isMapped
+                + "\n\tBinaryCache: " + isCached
+                + "\n\tThreadNumber: " + threadNum
+                + "\n\tWorkerNumberPerFile: " + workerNum
+                + "\n\tPlot: " + (isNoPlot ? "off" : plotThreadNum + " writer thread(s)") + "\n");
     }
 
     private static void printUsage() {
         System.err.println("java -jar MS2SpecFinder.jar \n"
                 + "\t<-f MS2FolderPath>\n"
-                + "\t<-p SpecifiedPeptide>\n"
+                + "\t<-p SpecifiedPeptide | -l PeptideListFile, one peptide per line>\n"
                 + "\t[-e FragmentErrorTolerance (Default: 0.2)]\n"
                 + "\t[isPPM (Default: false)]\n"
+                + "\t[-s IonTypes, comma-separated from " + Arrays.toString(IonType.values()) + " (Default: Y)]\n"
+                + "\t[-z MaxFragmentCharge, capped at the precursor charge minus 1 (Default: 1)]\n"
+                + "\t[-r PrecursorMassTolerance in Da of the precursor MH (Default: none, an open search)]\n"
                 + "\t[-i RelaIntenThreshold (Default: 5)]\n"
                 + "\t[-m MinimumMatchingPeaks (Default: 3)]\n"
-                + "\t[-t MaximumMatchingIntensityThreshold (Default: 99)]\n");
+                + "\t[-t MaximumMatchingIntensityThreshold (Default: 99)]\n"
+                + "\t[--mmap (Default: false)]\n"
+                + "\t[--cache (Default: false)]\n"
+                + "\t[-n ThreadNumber (Default: 1)]\n"
+                + "\t[-w WorkerNumberPerFile (Default: 1)]\n"
+                + "\t[--noPlot, only the CSV output (Default: false)]\n"
+                + "\t[-g PlotThreadNum (Default: 2)]\n");
         System.exit(1);
     }
 
-    private static String arr2Str(double[] arr) {
+    /**
+     * Join the matched intensities of a peptide, series by series; a peptide shorter than the longest one
+     * leaves the rest of each series empty, so the columns of a series line up across peptides.
+     */
+    private static String ions2Str(double[] matchedIons, int seriesNum, int maxIonNum, String delim) {
         StringBuilder sb = new StringBuilder();
-        for (double d : arr) {
-            sb.append("\t");
-            sb.append(d);
-        }
-
-        return sb.toString();
-    }
-
-    private static String arr2StrComma(double[] arr) {
-        StringBuilder sb = new StringBuilder();
-        for (double d : arr) {
-            sb.append(",");
-            sb.append(d);
+        int ionNum = matchedIons.length / seriesNum;
+        for (int series = 0; series < seriesNum; series++) {
+            for (int i = 0; i < maxIonNum; i++) {
+                sb.append(delim);
+                if (i < ionNum) {
+                    sb.append(matchedIons[series * ionNum + i]);
+                }
+            }
         }
 
         return sb.toString();
@@ -15,12 +15,19 @@
 package edu.upenn.sas.matthews.ms.app;
 
 import edu.upenn.sas.matthews.ms.basics.Constants;
-import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+import edu.upenn.sas.matthews.ms.basics.spec.Spectrum;
+import edu.upenn.sas.matthews.ms.deconv.Deconvolver;
+import edu.upenn.sas.matthews.ms.deconv.IsotopeEnvelope;
 import edu.upenn.sas.matthews.ms.io.MSnFileReader;
+import edu.upenn.sas.matthews.ms.io.SpectrumPipeline;
 import jargs.gnu.CmdLineParser;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class PairFinderInMS1 {
 
@@ -35,8 +42,19 @@ public class PairFinderInMS1 {
         CmdLineParser.Option relaIntenThresholdArg = parser.addDoubleOption('i', "RelaIntenThreshold");
         CmdLineParser.Option rtDiffTolArg = parser.addDoubleOption('r', "RtDiffTol");
         CmdLineParser.Option pairProfileSimilarityThresholdArg = parser.addDoubleOption('s', "PairProfSimThres");
-        CmdLineParser.Option labelMassDiffArg = parser.addDoubleOption('d', "LabelMassDiff");
+        CmdLineParser.Option labelMassDiffArg = parser.addStringOption('d', "LabelMassDiffs");
         CmdLineParser.Option maxChargeStateArg = parser.addIntegerOption('z', "MaxChargeState");
+        CmdLineParser.Option isMappedArg = parser.addBooleanOption("mmap");
+        CmdLineParser.Option isCachedArg = parser.addBooleanOption("cache");
+        CmdLineParser.Option threadNumArg = parser.addIntegerOption('n', "ThreadNum");
+        CmdLineParser.Option workerNumArg = parser.addIntegerOption('w', "WorkerNum");
+        CmdLineParser.Option minRtArg = parser.addDoubleOption("minRt");
+        CmdLineParser.Option maxRtArg = parser.addDoubleOption("maxRt");
+        CmdLineParser.Option isTracedArg = parser.addBooleanOption("xic");
+        CmdLineParser.Option maxGapScanNumArg = parser.addIntegerOption("maxGap");
+        CmdLineParser.Option isAlignedArg = parser.addBooleanOption("align");
+        CmdLineParser.Option maxRtShiftArg = parser.addDoubleOption("maxRtShift");
+        CmdLineParser.Option isDeconvolvedArg = parser.addBooleanOption("deconv");
 
         try {
             parser.parse(args);
@@ -49,10 +67,21 @@ public class PairFinderInMS1 {
         Integer precMassErrTolByPPM = (Integer) parser.getOptionValue(precMassErrTolByPPMArg, 5);
         Double relaIntenThreshold = (Double) parser.getOptionValue(relaIntenThresholdArg, 2.0);
         Double rtDiffTol = (Double) parser.getOptionValue(rtDiffTolArg, 0.5);
-        Double labelMassDiff = (Double) parser.getOptionValue(labelMassDiffArg, 6.0138);
+        String labelMassDiffs = (String) parser.getOptionValue(labelMassDiffArg, "6.0138");
         Double pairProfileSimilarityThreshold =
                 (Double) parser.getOptionValue(pairProfileSimilarityThresholdArg, 0.85);
         Integer maxChargeState = (Integer) parser.getOptionValue(maxChargeStateArg, 5);
+        Boolean isMapped = (Boolean) parser.getOptionValue(isMappedArg, false);
+        Boolean isCached = (Boolean) parser.getOptionValue(isCachedArg, false);
+        Integer threadNum = (Integer) parser.getOptionValue(threadNumArg, 1);
+        Integer workerNum = (Integer) parser.getOptionValue(workerNumArg, 1);
+        Double minRt = (Double) parser.getOptionValue(minRtArg, 0.0);
+        Double maxRt = (Double) parser.getOptionValue(maxRtArg, Double.POSITIVE_INFINITY);
+        Boolean isTraced = (Boolean) parser.getOptionValue(isTracedArg, false);
+        Integer maxGapScanNum = (Integer) parser.getOptionValue(maxGapScanNumArg, 1);
+        Boolean isAligned = (Boolean) parser.getOptionValue(isAlignedArg, false);
+        Double maxRtShift = (Double) parser.getOptionValue(maxRtShiftArg, 2.0);
+        Boolean isDeconvolved = (Boolean) parser.getOptionValue(isDeconvolvedArg, false);
 
         File ms1Dir = new File(ms1FolderPath);
         if (!ms1Dir.exists()) {
@@ -60,37 +89,71 @@ public class PairFinderInMS1 {
             System.exit(1);
         }
 
-        print_params(ms1FolderPath, precMassErrTolByPPM, relaIntenThreshold, rtDiffTol, labelMassDiff,
-                pairProfileSimilarityThreshold, maxChargeState);
+        LabelSet labels = null;
+        try {
+            labels = LabelSet.parse(labelMassDiffs);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
 
-        List<PrecInfo> piList = find(ms1Dir.getAbsolutePath(), precMassErrTolByPPM,
-                relaIntenThreshold, pairProfileSimilarityThreshold, labelMassDiff, maxChargeState);
-        Map<String, List<PrecInfo>> groups = group(piList, precMassErrTolByPPM, true, rtDiffTol);
+        PairSearchParams params = new PairSearchParams();
+        params.setErrTol(precMassErrTolByPPM);
+        params.setRelaIntenThreshold(relaIntenThreshold);
+        params.setPairProfileSimilarityThreshold(pairProfileSimilarityThreshold);
+        params.setLabels(labels);
+        params.setMaxChargeState(maxChargeState);
+        params.setMapped(isMapped);
+        params.setCached(isCached);
+        params.setThreadNum(threadNum);
+        params.setWorkerNum(workerNum);
+        params.setRtRange(minRt, maxRt);
+        params.setTraced(isTraced);
+        params.setMaxGapScanNum(maxGapScanNum);
+        params.setDeconvolved(isDeconvolved);
+
+        print_params(ms1FolderPath, params, rtDiffTol, isAligned, maxRtShift);
+
+        List<PrecInfo> piList = find(ms1Dir.getAbsolutePath(), params);
+        // the traces are already one per elution, only their isotopes are removed;
+        Map<String, List<PrecInfo>> groups = isTraced ? groupTraces(piList, precMassErrTolByPPM, true, rtDiffTol)
+                : group(piList, precMassErrTolByPPM, true, rtDiffTol);
 
         File outFile = new File(ms1Dir, "PairFinderResult.csv");
         BufferedWriter bw = new BufferedWriter(new FileWriter(outFile));
-        bw.write("file,m/z,z,intensity,rt\n");
+        // the label is written only if there are several;
+        boolean isMultiLabel = labels.getLabelNum() > 1;
+        bw.write((isTraced ? "file,m/z,z,intensity,rt,area,startRt,endRt,scans" : "file,m/z,z,intensity,rt")
+                + (isMultiLabel ? ",label\n" : "\n"));
         for (String key : groups.keySet()) {
             for (PrecInfo pi : groups.get(key)) {
-                bw.write(pi.toString() + "\n");
+                bw.write(pi.toString() + (isMultiLabel ? "," + labels.getName(pi.labelIdx) + "\n" : "\n"));
             }
         }
         bw.close();
 
         System.out.println("The result has been exported to " + outFile.getAbsolutePath());
+
+        if (isAligned) {
+            String[] filenames = groups.keySet().toArray(new String[0]);
+            Arrays.sort(filenames);
+            List<FeatureAligner.Feature> features = FeatureAligner.align(groups, filenames, precMassErrTolByPPM,
+                    true, rtDiffTol, maxRtShift);
+            File alignFile = new File(ms1Dir, "PairFinderAlignment.csv");
+            FeatureAligner.write(features, filenames, labels, alignFile);
+            System.out.println(features.size() + " features aligned across " + filenames.length
+                    + " files have been exported to " + alignFile.getAbsolutePath());
+        }
     }
 
-    private static void print_params(String ms1FolderPath, int precMassErrTolByPPM, double relaIntenThreshold,
-                                     double rtDiffTol, double labelMassDiff, double pairProfileSimilarityThreshold,
-                                     int maxChargeState) {
+    private static void print_params(String ms1FolderPath, PairSearchParams params, double rtDiffTol,
+                                     boolean isAligned, double maxRtShift) {
         System.out.println("Parameters specified:"
                 + "\n\tMS1_Folder_Path: " + ms1FolderPath
-                + "\n\tPrec_Mass_Err_Tol_By_PPM: " + precMassErrTolByPPM
-                + "\n\tRelative_Intensity_Threshold: " + relaIntenThreshold
+                + params
                 + "\n\tRT_Difference_Tol_By_Minute: " + rtDiffTol
-                + "\n\tPair_Profile_Similarity_Threshold: " + pairProfileSimilarityThreshold
-                + "\n\tMax_Charge_State: " + maxChargeState
-                + "\n\tLabel_Mass_Diff: " + labelMassDiff + "\n");
+                + "\n\tAlign_Across_Files: " + isAligned
+                + "\n\tMax_RT_Shift_By_Minute: " + maxRtShift + "\n");
     }
 
     private static void printUsage() {
@@ -101,7 +164,19 @@ public class PairFinderInMS1 {
                 + "\t[-r RT_Difference_Tol_By_Minute (Default: 0.5)]\n"
                 + "\t[-s Pair_Profile_Similarity_Threshold (Default: 0.85)]\n"
                 + "\t[-z Max_Charge_State (Default: 5)]\n"
-                + "\t[-d Label_Mass_Diff (Default: 6.0138)]\n");
+                + "\t[-d Label_Mass_Diffs, comma-separated labels, colon-separated channels of a label,"
+                + " e.g. 6.0138,4.0251:8.0502 (Default: 6.0138)]\n"
+                + "\t[--mmap (Default: false)]\n"
+                + "\t[--cache (Default: false)]\n"
+                + "\t[-n Thread_Number (Default: 1)]\n"
+                + "\t[-w Worker_Number_Per_File (Default: 1)]\n"
+                + "\t[--minRt Min_RT_By_Minute (Default: 0)]\n"
+                + "\t[--maxRt Max_RT_By_Minute (Default: Infinity)]\n"
+                + "\t[--xic (Default: false)]\n"
+                + "\t[--maxGap Max_Gap_Scan_Number (Default: 1)]\n"
+                + "\t[--align (Default: false)]\n"
+                + "\t[--maxRtShift Max_RT_Shift_By_Minute (Default: 2)]\n"
+                + "\t[--deconv (Default: false)]\n");
         System.exit(1);
     }
 
@@ -109,20 +184,31 @@ public class PairFinderInMS1 {
                                                     double rtDiffTol) {
         Map<String, List<PrecInfo>> groups = new HashMap<>();
 
+        // a grid per file, so that a precursor is only compared with the precursors in the nearby cells;
+        Map<String, PrecInfoGrid> grids = new HashMap<>();
+        double mzBinWidth = isPPM ? 1000 * errTol / 1E6 : errTol;
+        List<PrecInfo> candidates = new ArrayList<>();
         for (PrecInfo pi : piList) {
             double err = isPPM ? pi.mz * errTol / 1E6 : errTol;
             if (!groups.containsKey(pi.filename)) {
                 groups.put(pi.filename, new ArrayList<>());
+                grids.put(pi.filename, new PrecInfoGrid(mzBinWidth, rtDiffTol));
             }
 
             List<PrecInfo> lPiList = groups.get(pi.filename);
+            PrecInfoGrid grid = grids.get(pi.filename);
+            candidates.clear();
+            grid.collect(pi.z, pi.mz, err, pi.rt, rtDiffTol, candidates);
             boolean hit = false;
-            for (PrecInfo lpi : lPiList) {
-                if (pi.z == lpi.z && Math.abs(pi.mz - lpi.mz) < err && Math.abs(pi.rt - lpi.rt) <= rtDiffTol) {
+            for (PrecInfo lpi : candidates) {
+                if (pi.z == lpi.z && pi.labelIdx == lpi.labelIdx && Math.abs(pi.mz - lpi.mz) < err
+                        && Math.abs(pi.rt - lpi.rt) <= rtDiffTol) {
                     if (lpi.h < pi.h) {
+                        grid.remove(lpi);
                         lpi.mz = pi.mz;
                         lpi.h = pi.h;
                         lpi.rt = pi.rt;
+                        grid.add(lpi);
                     }
                     hit = true;
                 }
@@ -130,48 +216,87 @@ public class PairFinderInMS1 {
 
             if (!hit) {
                 lPiList.add(pi);
+                grid.add(pi);
             }
         }
 
-        // remove isotopes;
-        for (String key : groups.keySet()) {
-            List<PrecInfo> lPiList = groups.get(key);
+        removeIsotopes(groups, errTol, isPPM, rtDiffTol);
+        return groups;
+    }
+
+    /**
+     * Group the traces given by XicTracer by file and remove their isotopes. Unlike the points of the scans,
+     * the traces of a pair are not merged, since a trace already covers an elution.
+     * @return the traces of each file, in the order of m/z.
+     */
+    public static Map<String, List<PrecInfo>> groupTraces(List<PrecInfo> traceList, double errTol, boolean isPPM,
+                                                          double rtDiffTol) {
+        Map<String, List<PrecInfo>> groups = new HashMap<>();
+        for (PrecInfo trace : traceList) {
+            groups.computeIfAbsent(trace.filename, k -> new ArrayList<>()).add(trace);
+        }
+        removeIsotopes(groups, errTol, isPPM, rtDiffTol);
+        return groups;
+    }
+
+    private static void removeIsotopes(Map<String, List<PrecInfo>> groups, double errTol, boolean isPPM,
+                                       double rtDiffTol) {
+        for (Map.Entry<String, List<PrecInfo>> entry : groups.entrySet()) {
+            List<PrecInfo> lPiList = entry.getValue();
             Collections.sort(lPiList);
-            int i = 1;
-            outer: while (i < lPiList.size()) {
-                PrecInfo curPi = lPiList.get(i);
-                for (int j = 1; j <= i; j++) {
-                    PrecInfo prevPi = lPiList.get(i - j);
-                    if (curPi.z != prevPi.z) {
-                        j++;
-                        continue;
-                    } else {
-                        double err = isPPM ? (prevPi.mz * errTol / 1E6) : errTol;
-                        if (curPi.mz - prevPi.mz <= err && Math.abs(curPi.rt - prevPi.rt) <= rtDiffTol) {
-                            lPiList.remove(i);
-                            continue outer;
-                        } else {
-                            double stepNum = Math.round((curPi.mz - prevPi.mz) / (Constants.NEUTRON_MASS / curPi.z));
-                            if (stepNum > 5) {
-                                break;
-                            }
-                            if (Math.abs(prevPi.mz + stepNum * Constants.NEUTRON_MASS / curPi.z - curPi.mz) <= err
-                                    && Math.abs(curPi.rt - prevPi.rt) <= rtDiffTol) {
-                                lPiList.remove(i);
-                                continue outer;
-                            }
-                        }
-                    }
+            entry.setValue(removeIsotopes(lPiList, errTol, isPPM, rtDiffTol));
+        }
+    }
+
+    /**
+     * Remove the isotopes in one sweep over a list of precursors sorted by m/z. A precursor is an isotope if a
+     * kept precursor before it with the same charge and retention time is within the error tolerance, or
+     * within the tolerance after up to 5 isotope steps. The kept precursors are walked back from the nearest,
+     * and a kept precursor of another charge also passes over the one before it. The walk ends at the first
+     * precursor beyond both 5 isotope steps and the tolerance, since the ones before it are even farther.
+     * @param piList the precursors of a file, sorted by m/z.
+     * @return the kept precursors, in the order of m/z.
+     */
+    private static List<PrecInfo> removeIsotopes(List<PrecInfo> piList, double errTol, boolean isPPM,
+                                                 double rtDiffTol) {
+        PrecInfo[] keptArr = new PrecInfo[piList.size()];
+        int keptNum = 0;
+        outer: for (PrecInfo curPi : piList) {
+            for (int j = 1; j <= keptNum; j++) {
+                PrecInfo prevPi = keptArr[keptNum - j];
+                double err = isPPM ? (prevPi.mz * errTol / 1E6) : errTol;
+                double stepNum = Math.round((curPi.mz - prevPi.mz) / (Constants.NEUTRON_MASS / curPi.z));
+                if (stepNum > 5 && curPi.mz - prevPi.mz > err) {
+                    break;
+                }
+                if (curPi.z != prevPi.z) {
+                    j++;
+                    continue;
+                }
+
+                if (curPi.mz - prevPi.mz <= err && Math.abs(curPi.rt - prevPi.rt) <= rtDiffTol) {
+                    continue outer;
+                }
+                if (stepNum > 5) {
+                    break;
+                }
+                if (Math.abs(prevPi.mz + stepNum * Constants.NEUTRON_MASS / curPi.z - curPi.mz) <= err
+                        && Math.abs(curPi.rt - prevPi.rt) <= rtDiffTol) {
+                    continue outer;
                 }
-                i++;
             }
+            keptArr[keptNum++] = curPi;
         }
-        return groups;
+
+        return new ArrayList<>(Arrays.asList(keptArr).subList(0, keptNum));
     }
 
-    public static List<PrecInfo> find(String ms1Dir, int precMassErrTolByPPM, double relaIntenThreshold,
-                                      double pairProfileSimilarityThreshold, double labelMassDiff, int maxChargeState)
-            throws IOException {
+    /**
+     * Find the pairs in all the MS1 files of a folder, the files at once on the threads of the parameters.
+     * @return the pairs, or their traces, of all the files, in the order of the files.
+     * @throws IOException
+     */
+    public static List<PrecInfo> find(String ms1Dir, PairSearchParams params) throws IOException {
         File dir = new File(ms1Dir);
         if (!dir.exists()) {
             System.err.println("ERROR: cannot find directory " + ms1Dir);
@@ -181,104 +306,412 @@ public class PairFinderInMS1 {
         // get all MS1 files;
         FileFilter filter = filename -> filename.getName().endsWith(".ms1");
 
-        List<PrecInfo> piList = new ArrayList<>();
+        // the offsets and the deconvolver are computed once, and shared by all the files and workers;
+        params.getOffsetTable();
+        params.getDeconvolver();
+
+        // each file collects its own list, which are merged in the order of the files;
         File[] ms1Files = dir.listFiles(filter);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, params.getThreadNum()));
+        List<Future<List<PrecInfo>>> futures = new ArrayList<>();
         for (File ms1File : ms1Files) {
-            find(ms1File, precMassErrTolByPPM, relaIntenThreshold, pairProfileSimilarityThreshold,
-                    labelMassDiff, maxChargeState, piList);
+            futures.add(pool.submit(() -> {
+                List<PrecInfo> filePiList = new ArrayList<>();
+                find(ms1File, params, filePiList);
+                return filePiList;
+            }));
+        }
+
+        List<PrecInfo> piList = new ArrayList<>();
+        try {
+            for (Future<List<PrecInfo>> future : futures) {
+                piList.addAll(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Failed in processing MS1 files", e);
+        } finally {
+            pool.shutdownNow();
         }
 
         return piList;
     }
 
-    public static void find(File file, double errTol, double relaIntenThreshold, double pairProfileSimilarityThreshold,
-                            double labelMassDiff, int maxChargeState, List<PrecInfo> piList) throws IOException {
-        MSnFileReader mfr = new MSnFileReader(file.getAbsolutePath());
-
-        while (mfr.hasNext()) {
-            double prevMz = 0;
-            int prevZ = 0;
-            MSnSpectrum spec = mfr.next();
-            double[] mzArr = spec.getMzArr();
-            double[] hArr = spec.getIntenArr();
-            int peakNum = spec.getNumPeaks();
-            double maxH = 0;
-            for (int i = 0; i < peakNum; i++) {
-                maxH = (maxH < hArr[i]) ? hArr[i] : maxH;
+    /**
+     * Find the pairs in an MS1 file, its spectra scored at once by the workers of the parameters. With tracing,
+     * the pairs of each scan are passed to an XicTracer as the file is read, and only the traces are added to
+     * the list.
+     * @param piList the list to add the pairs, or their traces, to.
+     * @throws IOException
+     */
+    public static void find(File file, PairSearchParams params, List<PrecInfo> piList) throws IOException {
+        // the offsets and the deconvolver are computed before the workers start;
+        params.getOffsetTable();
+        params.getDeconvolver();
+        XicTracer tracer = params.isTraced()
+                ? new XicTracer(params.getErrTol(), true, params.getMaxGapScanNum(), piList) : null;
+        SpectrumPipeline.Receiver<List<PrecInfo>> receiver = tracer != null ? tracer::next : piList::addAll;
+        MSnFileReader mfr = new MSnFileReader(file.getAbsolutePath(), params.isMapped(), params.isCached());
+        try {
+            mfr.setFilter(params.getScanFilter());
+            String filename = file.getName();
+            // parse and score the spectra concurrently, or one by one with a single worker;
+            SpectrumPipeline.run(mfr, params.getWorkerNum(), spec -> find(spec, filename, params), receiver);
+        } finally {
+            mfr.close();
+        }
+        if (tracer != null) {
+            tracer.close();
+        }
+    }
+
+    /**
+     * Find the pairs in a spectrum, among its isotope envelopes if the parameters deconvolve the spectra, or
+     * else among its peaks.
+     * @return the pairs in the order of m/z, each with the index of its label.
+     */
+    public static List<PrecInfo> find(Spectrum spec, String filename, PairSearchParams params) {
+        Deconvolver deconvolver = params.getDeconvolver();
+        if (deconvolver == null) {
+            return findInPeaks(spec, filename, params.getErrTol(), params.getRelaIntenThreshold(),
+                    params.getPairProfileSimilarityThreshold(), params.getOffsetTable());
+        }
+        return findInEnvelopes(spec, filename, params.getErrTol(), params.getRelaIntenThreshold(),
+                params.getPairProfileSimilarityThreshold(), params.getOffsetTable(), deconvolver);
+    }
+
+    /**
+     * Find the pairs in a spectrum, for all the labels in one pass over the peaks. The peaks of the isotope
+     * profiles of a pair found are assigned its charge state, and are not searched for pairs themselves.
+     * @param offsetTable the offsets of the labels, shared by all the spectra of a run.
+     * @return the pairs in the order of m/z, each with the index of its label.
+     */
+    private static List<PrecInfo> findInPeaks(Spectrum spec, String filename, double errTol,
+                                              double relaIntenThreshold, double pairProfileSimilarityThreshold,
+                                              PairOffsetTable offsetTable) {
+        List<PrecInfo> piList = new ArrayList<>();
+        double prevMz = 0;
+        int prevZ = 0;
+        int peakNum = spec.getNumPeaks();
+        double maxH = maxInten(spec);
+
+        // the scratch arrays of the search, shared by all peaks, and the charge state assigned to each peak;
+        PairHunter hunter = new PairHunter(offsetTable);
+        byte[] assignedZArr = new byte[peakNum];
+        for (int i = 0; i < peakNum; i++) {
+            double mz = spec.getMz(i);
+            double err = mz * errTol / 1E6;
+            if (prevZ != 0 && Math.abs(mz - prevMz - offsetTable.iso1StepArr[prevZ]) <= err) {
+                prevMz = mz;
+                continue;
+            }
+            double h = spec.getInten(i);
+            if (assignedZArr[i] != 0 || h / maxH * 100 < relaIntenThreshold) {
+                continue;
+            }
+            int z = hunter.hunt(i, spec, errTol, pairProfileSimilarityThreshold);
+            if (z > 0) {
+                piList.add(new PrecInfo(mz, h, z, filename, spec.getRt(), hunter.labelIdx));
+                hunter.assign(assignedZArr);
+                prevMz = mz;
+                prevZ = z;
             }
+        }
 
-            for (int i = 0; i < peakNum; i++) {
-                double err = mzArr[i] * errTol / 1E6;
-                if (prevZ != 0 && Math.abs(mzArr[i] - prevMz - (Constants.NEUTRON_MASS / prevZ)) <= err) {
-                    prevMz = mzArr[i];
-                    continue;
-                }
-                if (hArr[i] / maxH * 100 < relaIntenThreshold) {
-                    continue;
+        return piList;
+    }
+
+    /**
+     * Find the pairs in a spectrum among its isotope envelopes instead of its peaks. An envelope is paired
+     * with the envelopes of its charge state at the steps of the channels of a label, if their first three
+     * peaks are similar to its own; the charge state is the one of the envelope, so the other charge states
+     * are not tried, and the envelopes found as partners are not searched themselves. Only the peaks above the
+     * relative intensity threshold start an envelope, so a partner below it is read from the peaks.
+     * @return the pairs in the order of m/z, each with the index of its label.
+     */
+    private static List<PrecInfo> findInEnvelopes(Spectrum spec, String filename, double errTol,
+                                                  double relaIntenThreshold, double pairProfileSimilarityThreshold,
+                                                  PairOffsetTable offsetTable, Deconvolver deconvolver) {
+        List<PrecInfo> piList = new ArrayList<>();
+        double maxH = maxInten(spec);
+
+        // the envelopes start at the peaks above the threshold only, as the light peaks of the hunt;
+        List<IsotopeEnvelope> envList = deconvolver.deconvolve(spec, maxH * relaIntenThreshold / 100);
+        int envNum = envList.size();
+        double[] monoMzArr = new double[envNum];
+        for (int a = 0; a < envNum; a++) {
+            monoMzArr[a] = envList.get(a).getMonoMz();
+        }
+        boolean[] isPartnerArr = new boolean[envNum];
+        int[] partnerArr = new int[offsetTable.stepArr.length];
+        int maxChargeState = offsetTable.maxChargeState;
+        for (int a = 0; a < envNum; a++) {
+            IsotopeEnvelope env = envList.get(a);
+            int z = env.getZ();
+            int zIdx = maxChargeState - z;
+            if (isPartnerArr[a] || zIdx < 0 || zIdx >= offsetTable.labelStepArr.length || env.getPeakNum() < 3
+                    || env.getPeakInten(0) / maxH * 100 < relaIntenThreshold) {
+                continue;
+            }
+
+            int[][] labelSteps = offsetTable.labelStepArr[zIdx];
+            nextLabel:
+            for (int l = 0; l < labelSteps.length; l++) {
+                int[] steps = labelSteps[l];
+                for (int c = 0; c < steps.length; c++) {
+                    double partnerMz = env.getMonoMz() + offsetTable.stepArr[steps[c]];
+                    int b = searchEnvelope(envList, monoMzArr, a + 1, partnerMz, errTol, z);
+                    // a partner below the threshold is not in the list, and is read from the peaks;
+                    IsotopeEnvelope partner = b >= 0 ? envList.get(b) : deconvolver.getEnvelope(spec, partnerMz, z);
+                    if (partner == null || partner.getPeakNum() < 3
+                            || !isSimilar(env.getPeakInten(0), env.getPeakInten(1), env.getPeakInten(2),
+                            partner.getPeakInten(0), partner.getPeakInten(1), partner.getPeakInten(2),
+                            pairProfileSimilarityThreshold)) {
+                        continue nextLabel;
+                    }
+                    partnerArr[c] = b;
                 }
-                int z = huntsPair(i, spec, errTol, pairProfileSimilarityThreshold, labelMassDiff, maxChargeState);
-                if (z > 0) {
-                    piList.add(new PrecInfo(mzArr[i], hArr[i], z, file.getName(), spec.getRt()));
-                    prevMz = mzArr[i];
-                    prevZ = z;
+
+                piList.add(new PrecInfo(env.getMonoMz(), env.getPeakInten(0), z, filename, spec.getRt(), l));
+                for (int c = 0; c < steps.length; c++) {
+                    if (partnerArr[c] >= 0) {
+                        isPartnerArr[partnerArr[c]] = true;
+                    }
                 }
+                break;
+            }
+        }
+
+        return piList;
+    }
+
+    private static double maxInten(Spectrum spec) {
+        double maxH = 0;
+        int peakNum = spec.getNumPeaks();
+        for (int i = 0; i < peakNum; i++) {
+            double h = spec.getInten(i);
+            maxH = (maxH < h) ? h : maxH;
+        }
+        return maxH;
+    }
+
+    /**
+     * Look for the envelope of a charge state and at least three peaks nearest to an m/z value.
+     * @param fromIdx the index of the first envelope to search.
+     * @return the index of the envelope, or -1 if there is none within the tolerance.
+     */
+    private static int searchEnvelope(List<IsotopeEnvelope> envList, double[] monoMzArr, int fromIdx,
+                                      double targetMz, double errTol, int z) {
+        double err = targetMz * errTol / 1E6;
+        int pos = Arrays.binarySearch(monoMzArr, fromIdx, monoMzArr.length, targetMz - err);
+        pos = pos < 0 ? -pos - 1 : pos;
+        int nearest = -1;
+        double minDiff = Double.POSITIVE_INFINITY;
+        for (; pos < monoMzArr.length && monoMzArr[pos] <= targetMz + err; pos++) {
+            IsotopeEnvelope env = envList.get(pos);
+            double diff = Math.abs(monoMzArr[pos] - targetMz);
+            if (env.getZ() == z && env.getPeakNum() >= 3 && diff < minDiff) {
+                minDiff = diff;
+                nearest = pos;
             }
         }
-        mfr.close();
+        return nearest;
     }
 
-    public static int huntsPair(int idx, MSnSpectrum spec, double errTol, double pairProfileSimilarityThreshold,
+    /**
+     * Look for the heavy partner of a peak, trying the charge states from the highest down. The isotope peaks
+     * of both partners are searched forward from the peak itself, since they all lie above it, and the two
+     * profiles are compared in place.
+     * @return the charge state of the pair, or 0 if no pair is found.
+     */
+    public static int huntsPair(int idx, Spectrum spec, double errTol, double pairProfileSimilarityThreshold,
                                 double labelMassDiff, int maxChargeState) {
-        double[] mzArr = spec.getMzArr();
-        double[] hArr = spec.getIntenArr();
-        // try different charge states;
-        double mz1 = mzArr[idx];
-        int z = maxChargeState;
-        outer: while (z > 1) {
-            double dMz = labelMassDiff / z;
-            double mz2 = mz1 + dMz;
-            int pos = spec.searchMz(mz2, errTol, true);
-            if (pos < 0) {
-                z--;
-                continue;
+        return huntsPair(idx, spec, errTol, pairProfileSimilarityThreshold,
+                new PairOffsetTable(new LabelSet(new double[]{labelMassDiff}), maxChargeState));
+    }
+
+    /**
+     * Look for the heavier partners of a peak for several labels, trying the charge states from the highest
+     * down, and the labels in their order at each charge state.
+     * @return the charge state of the first label whose partners are all found, or 0 if there is none.
+     * @see #huntsPair(int, Spectrum, double, double, double, int)
+     */
+    public static int huntsPair(int idx, Spectrum spec, double errTol, double pairProfileSimilarityThreshold,
+                                PairOffsetTable offsetTable) {
+        return new PairHunter(offsetTable).hunt(idx, spec, errTol, pairProfileSimilarityThreshold);
+    }
+
+    /**
+     * The search for the partners of a peak, for all the labels and charge states at once. The isotope peaks
+     * of the peak itself are searched first, since they are shared by all the labels; then the partners of
+     * all the channels at the charge states left are searched in one batch, and the isotope peaks of a partner
+     * at most once, however many labels share it. An instance keeps the scratch arrays of one spectrum.
+     */
+    private static class PairHunter {
+
+        private final PairOffsetTable table;
+        // the isotope peaks of the peak itself at each charge state, from the highest down;
+        private final double[] isoMzArr;
+        private final int[] iso1PosArr;
+        private final int[] iso2PosArr;
+        private final double[] partnerMzArr;
+        private final int[] partnerPosArr;
+        // the partners searched in the batch, i.e. the ones at a charge state left;
+        private final double[] targetMzArr;
+        private final int[] targetStepArr;
+        private final int[] targetPosArr;
+        // the first and second isotope peaks of each partner, valid if searched in the current hunt;
+        private final int[] partnerIso1PosArr;
+        private final int[] partnerIso2PosArr;
+        private final int[] searchedHuntArr;
+        private int huntNum;
+        // the charge state index and the label of the last pair found;
+        private int zIdx;
+        int labelIdx;
+
+        PairHunter(PairOffsetTable table) {
+            this.table = table;
+            int zNum = table.labelStepArr.length;
+            int stepNum = table.stepArr.length;
+            isoMzArr = new double[zNum];
+            iso1PosArr = new int[zNum];
+            iso2PosArr = new int[zNum];
+            partnerMzArr = new double[stepNum];
+            partnerPosArr = new int[stepNum];
+            targetMzArr = new double[stepNum];
+            targetStepArr = new int[stepNum];
+            targetPosArr = new int[stepNum];
+            partnerIso1PosArr = new int[stepNum];
+            partnerIso2PosArr = new int[stepNum];
+            searchedHuntArr = new int[stepNum];
+        }
+
+        /**
+         * @return the charge state of the pair, or 0 if no pair is found; labelIdx is set to its label.
+         */
+        int hunt(int idx, Spectrum spec, double errTol, double pairProfileSimilarityThreshold) {
+            double mz1 = spec.getMz(idx);
+            int maxChargeState = table.maxChargeState;
+            huntNum++;
+
+            // the peak itself, unless the binary search picks another peak of equal m/z;
+            int pos10 = spec.searchMz(mz1, errTol, true, idx);
+
+            // get the isotope profile of the peak at each charge state; the first isotope peaks ascend as the
+            // charge state goes down, so they are searched in one pass;
+            int zNum = isoMzArr.length;
+            for (int zIdx = 0; zIdx < zNum; zIdx++) {
+                isoMzArr[zIdx] = mz1 + table.iso1StepArr[maxChargeState - zIdx];
+            }
+            spec.searchMzBatch(isoMzArr, zNum, errTol, true, idx, iso1PosArr);
+            boolean hasProfile = false;
+            for (int zIdx = 0; zIdx < zNum; zIdx++) {
+                iso2PosArr[zIdx] = iso1PosArr[zIdx] < 0 ? -1 : spec.searchMz(
+                        mz1 + table.iso2StepArr[maxChargeState - zIdx], errTol, true, iso1PosArr[zIdx]);
+                hasProfile |= iso2PosArr[zIdx] >= 0;
+            }
+            if (!hasProfile) {
+                return 0;
             }
 
-            // get the isotope profiles;
-            double[] isoPrf1 = new double[] {
-                    mz1, mz1 + Constants.NEUTRON_MASS / z, mz1 + 2 * Constants.NEUTRON_MASS / z
-            };
-            double[] isoPrf2 = new double[] {
-                    mz2, mz2 + Constants.NEUTRON_MASS / z, mz2 + 2 * Constants.NEUTRON_MASS / z
-            };
-            for (int i = 0; i < isoPrf1.length; i++) {
-                pos = spec.searchMz(isoPrf1[i], errTol, true);
-                if (pos < 0) {
-                    z--;
-                    continue outer;
-                } else {
-                    isoPrf1[i] = hArr[pos];
+            // the partners at the charge states left ascend with the steps, so they are searched in one pass;
+            double[] stepArr = table.stepArr;
+            int targetNum = 0;
+            for (int k = 0; k < stepArr.length; k++) {
+                partnerMzArr[k] = mz1 + stepArr[k];
+                partnerPosArr[k] = -1;
+                if (iso2PosArr[table.stepZIdxArr[k]] >= 0) {
+                    targetMzArr[targetNum] = partnerMzArr[k];
+                    targetStepArr[targetNum] = k;
+                    targetNum++;
+                }
+            }
+            spec.searchMzBatch(targetMzArr, targetNum, errTol, true, idx, targetPosArr);
+            for (int t = 0; t < targetNum; t++) {
+                partnerPosArr[targetStepArr[t]] = targetPosArr[t];
+            }
+
+            // try different charge states, and the labels in their order;
+            for (int zIdx = 0; zIdx < zNum; zIdx++) {
+                int z = maxChargeState - zIdx;
+                int pos11 = iso1PosArr[zIdx];
+                int pos12 = iso2PosArr[zIdx];
+                if (pos12 < 0) {
+                    continue;
                 }
+                int[][] labelSteps = table.labelStepArr[zIdx];
+                nextLabel:
+                for (int l = 0; l < labelSteps.length; l++) {
+                    int[] steps = labelSteps[l];
+                    for (int k : steps) {
+                        if (partnerPosArr[k] < 0) {
+                            continue nextLabel;
+                        }
+                    }
 
-                pos = spec.searchMz(isoPrf2[i], errTol, true);
-                if (pos < 0) {
-                    z--;
-                    continue outer;
-                } else {
-                    isoPrf2[i] = hArr[pos];
+                    // compare the isotope profiles of the partners with the one of the peak;
+                    for (int k : steps) {
+                        int pos20 = partnerPosArr[k];
+                        if (searchedHuntArr[k] != huntNum) {
+                            double mz2 = partnerMzArr[k];
+                            int pos21 = spec.searchMz(mz2 + table.iso1StepArr[z], errTol, true, pos20);
+                            partnerIso1PosArr[k] = pos21;
+                            partnerIso2PosArr[k] = pos21 < 0 ? -1
+                                    : spec.searchMz(mz2 + table.iso2StepArr[z], errTol, true, pos21);
+                            searchedHuntArr[k] = huntNum;
+                        }
+                        if (partnerIso2PosArr[k] < 0
+                                || !isSimilar(spec.getInten(pos10), spec.getInten(pos11), spec.getInten(pos12),
+                                spec.getInten(pos20), spec.getInten(partnerIso1PosArr[k]),
+                                spec.getInten(partnerIso2PosArr[k]), pairProfileSimilarityThreshold)) {
+                            continue nextLabel;
+                        }
+                    }
+
+                    this.zIdx = zIdx;
+                    labelIdx = l;
+                    return z;
                 }
             }
 
-            // evaluate the similarity between two profiles;
-            double denom = Math.sqrt(Math.max(norm2(isoPrf1), norm2(isoPrf2)));
-            double dist = distance(isoPrf1, isoPrf2) / denom;
-            if (dist <= 1 - pairProfileSimilarityThreshold) {
-                return z;
-            }
+            return 0;
+        }
 
-            z--;
+        /**
+         * Assign the charge state of the last pair found to the peaks of its isotope profiles, i.e. the
+         * isotope peaks of the peak itself and the partners with their isotope peaks.
+         */
+        void assign(byte[] assignedZArr) {
+            byte z = (byte) (table.maxChargeState - zIdx);
+            assignedZArr[iso1PosArr[zIdx]] = z;
+            assignedZArr[iso2PosArr[zIdx]] = z;
+            for (int k : table.labelStepArr[zIdx][labelIdx]) {
+                assignedZArr[partnerPosArr[k]] = z;
+                assignedZArr[partnerIso1PosArr[k]] = z;
+                assignedZArr[partnerIso2PosArr[k]] = z;
+            }
         }
+    }
 
-        return 0;
+    /**
+     * Evaluate the similarity between two isotope profiles, the same as norm2 and distance.
+     */
+    private static boolean isSimilar(double h10, double h11, double h12, double h20, double h21, double h22,
+                                     double pairProfileSimilarityThreshold) {
+        float norm1 = 0;
+        norm1 += h10 * h10;
+        norm1 += h11 * h11;
+        norm1 += h12 * h12;
+        float norm2 = 0;
+        norm2 += h20 * h20;
+        norm2 += h21 * h21;
+        norm2 += h22 * h22;
+        float sqDist = 0;
+        sqDist += (h10 - h20) * (h10 - h20);
+        sqDist += (h11 - h21) * (h11 - h21);
+        sqDist += (h12 - h22) * (h12 - h22);
+        double denom = Math.sqrt(Math.max(norm1, norm2));
+        double dist = (float) Math.sqrt(sqDist) / denom;
+        return dist <= 1 - pairProfileSimilarityThreshold;
     }
 
     public static double norm2(double[] vec) {
@@ -307,43 +740,3 @@ public class PairFinderInMS1 {
     }
 
 }
-
-class PrecInfo implements Comparable<PrecInfo>, Serializable {
-
-    double mz;
-    double h;
-    int z;
-    String filename;
-    double rt;
-
-    public PrecInfo(double mz, double h, int z, String filename, double rt) {
-        this.mz = mz;
-        this.h = h;
-        this.z = z;
-        this.filename = filename;
-        this.rt = rt;
-    }
-
-    public PrecInfo(PrecInfo pi) {
-        this.mz = pi.mz;
-        this.h = pi.h;
-        this.z = pi.z;
-        this.filename = pi.filename;
-        this.rt = pi.rt;
-    }
-
-    public String toString() {
-        return filename + "," + mz + "," + z + "," + h + "," + rt;
-    }
-
-    @Override
-    public int compareTo(PrecInfo pi) {
-        if (mz > pi.mz) {
-            return 1;
-        } else if (mz < pi.mz) {
-            return -1;
-        }
-
-        return 0;
-    }
-}
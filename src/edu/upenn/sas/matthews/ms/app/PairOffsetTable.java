@@ -0,0 +1,105 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.app;
+
+import edu.upenn.sas.matthews.ms.basics.Constants;
+
+/**
+ * The charge-dependent m/z offsets of the pair search: the spacing of the isotope peaks at each charge state,
+ * and the steps from a light peak to the partners of all the labels at all the charge states. The table is
+ * computed once per run; it is never changed afterwards, so it is shared by all the threads.
+ */
+public class PairOffsetTable {
+
+    private final LabelSet labels;
+    final int maxChargeState;
+    // the first and second isotope peaks at each charge state, indexed by the charge state;
+    final double[] iso1StepArr;
+    final double[] iso2StepArr;
+    // the m/z steps from a peak to its partners, ascending, and the index of the charge state of each, the
+    // charge states being indexed from the highest down;
+    final double[] stepArr;
+    final int[] stepZIdxArr;
+    // the steps of the channels of each label at each charge state;
+    final int[][][] labelStepArr;
+
+    /**
+     * Compute the offsets.
+     * @param labels the labels.
+     * @param maxChargeState the highest charge state.
+     */
+    public PairOffsetTable(LabelSet labels, int maxChargeState) {
+        this.labels = labels;
+        this.maxChargeState = maxChargeState;
+        int zNum = Math.max(maxChargeState - 1, 0);
+
+        iso1StepArr = new double[Math.max(maxChargeState + 1, 2)];
+        iso2StepArr = new double[iso1StepArr.length];
+        for (int z = 1; z < iso1StepArr.length; z++) {
+            iso1StepArr[z] = Constants.NEUTRON_MASS / z;
+            iso2StepArr[z] = 2 * Constants.NEUTRON_MASS / z;
+        }
+
+        // an insertion sort of the few steps, each step keeping its mass difference and charge state;
+        int stepNum = zNum * labels.getMassDiffNum();
+        stepArr = new double[stepNum];
+        int[] keyArr = new int[stepNum];
+        for (int k = 0; k < stepNum; k++) {
+            double step = labels.getMassDiff(k / zNum) / (maxChargeState - k % zNum);
+            int j = k;
+            while (j > 0 && stepArr[j - 1] > step) {
+                stepArr[j] = stepArr[j - 1];
+                keyArr[j] = keyArr[j - 1];
+                j--;
+            }
+            stepArr[j] = step;
+            keyArr[j] = k;
+        }
+        int[] stepIdxArr = new int[stepNum];
+        stepZIdxArr = new int[stepNum];
+        for (int k = 0; k < stepNum; k++) {
+            stepIdxArr[keyArr[k]] = k;
+            stepZIdxArr[k] = keyArr[k] % zNum;
+        }
+
+        int labelNum = labels.getLabelNum();
+        labelStepArr = new int[zNum][labelNum][];
+        for (int zIdx = 0; zIdx < zNum; zIdx++) {
+            for (int l = 0; l < labelNum; l++) {
+                int[] channels = labels.getChannels(l);
+                labelStepArr[zIdx][l] = new int[channels.length];
+                for (int c = 0; c < channels.length; c++) {
+                    labelStepArr[zIdx][l][c] = stepIdxArr[channels[c] * zNum + zIdx];
+                }
+            }
+        }
+    }
+
+    public LabelSet getLabels() {
+        return labels;
+    }
+
+    public int getMaxChargeState() {
+        return maxChargeState;
+    }
+
+    /**
+     * @return the spacing of the isotope peaks at a charge state between 1 and the highest charge state.
+     */
+    public double getIsoStep(int z) {
+        return iso1StepArr[z];
+    }
+
+}
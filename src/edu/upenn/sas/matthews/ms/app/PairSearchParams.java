@@ -0,0 +1,251 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.app;
+
+import edu.upenn.sas.matthews.ms.deconv.Deconvolver;
+import edu.upenn.sas.matthews.ms.io.ScanFilter;
+
+/**
+ * The parameters of the pair search of PairFinderInMS1, with the defaults of its command line. The offset
+ * table and the deconvolver are computed on first use and shared by all the files and workers of a search,
+ * so the parameters are not changed while a search runs.
+ */
+public class PairSearchParams {
+
+    private double errTol = 5;
+    private double relaIntenThreshold = 2;
+    private double pairProfileSimilarityThreshold = 0.85;
+    private LabelSet labels = new LabelSet(new double[]{6.0138});
+    private int maxChargeState = 5;
+    private boolean isMapped = false;
+    private boolean isCached = false;
+    private int threadNum = 1;
+    private int workerNum = 1;
+    private double minRt = 0;
+    private double maxRt = Double.POSITIVE_INFINITY;
+    private boolean isTraced = false;
+    private int maxGapScanNum = 1;
+    private boolean isDeconvolved = false;
+
+    // computed on first use, and dropped when a parameter they depend on is set;
+    private PairOffsetTable offsetTable;
+    private Deconvolver deconvolver;
+
+    public double getErrTol() {
+        return errTol;
+    }
+
+    /**
+     * @param errTol the m/z tolerance by ppm.
+     */
+    public void setErrTol(double errTol) {
+        this.errTol = errTol;
+        deconvolver = null;
+    }
+
+    public double getRelaIntenThreshold() {
+        return relaIntenThreshold;
+    }
+
+    /**
+     * @param relaIntenThreshold the lowest intensity of a light peak, in percent of the most intense peak.
+     */
+    public void setRelaIntenThreshold(double relaIntenThreshold) {
+        this.relaIntenThreshold = relaIntenThreshold;
+    }
+
+    public double getPairProfileSimilarityThreshold() {
+        return pairProfileSimilarityThreshold;
+    }
+
+    /**
+     * @param pairProfileSimilarityThreshold the lowest similarity of the isotope profiles of two partners.
+     */
+    public void setPairProfileSimilarityThreshold(double pairProfileSimilarityThreshold) {
+        this.pairProfileSimilarityThreshold = pairProfileSimilarityThreshold;
+    }
+
+    public LabelSet getLabels() {
+        return labels;
+    }
+
+    /**
+     * @param labels the labels, searched together.
+     */
+    public void setLabels(LabelSet labels) {
+        this.labels = labels;
+        offsetTable = null;
+    }
+
+    public int getMaxChargeState() {
+        return maxChargeState;
+    }
+
+    public void setMaxChargeState(int maxChargeState) {
+        this.maxChargeState = maxChargeState;
+        offsetTable = null;
+        deconvolver = null;
+    }
+
+    public boolean isMapped() {
+        return isMapped;
+    }
+
+    /**
+     * @param isMapped whether the files are read through memory mapping.
+     */
+    public void setMapped(boolean isMapped) {
+        this.isMapped = isMapped;
+    }
+
+    public boolean isCached() {
+        return isCached;
+    }
+
+    /**
+     * @param isCached whether the peaks are kept in a binary cache next to each file.
+     */
+    public void setCached(boolean isCached) {
+        this.isCached = isCached;
+    }
+
+    public int getThreadNum() {
+        return threadNum;
+    }
+
+    /**
+     * @param threadNum the number of files searched at once.
+     */
+    public void setThreadNum(int threadNum) {
+        this.threadNum = threadNum;
+    }
+
+    public int getWorkerNum() {
+        return workerNum;
+    }
+
+    /**
+     * @param workerNum the number of spectra of a file scored at once.
+     */
+    public void setWorkerNum(int workerNum) {
+        this.workerNum = workerNum;
+    }
+
+    public double getMinRt() {
+        return minRt;
+    }
+
+    public double getMaxRt() {
+        return maxRt;
+    }
+
+    /**
+     * Search only the MS1 scans within a retention time window.
+     * @param minRt the lowest retention time in minutes, inclusive.
+     * @param maxRt the highest retention time in minutes, inclusive.
+     */
+    public void setRtRange(double minRt, double maxRt) {
+        this.minRt = minRt;
+        this.maxRt = maxRt;
+    }
+
+    /**
+     * @return a filter of the MS1 scans within the retention time window, so that the peaks of other scans are
+     * not parsed.
+     */
+    public ScanFilter getScanFilter() {
+        ScanFilter scanFilter = new ScanFilter();
+        scanFilter.setMsStage(1);
+        scanFilter.setRtRange(minRt, maxRt);
+        return scanFilter;
+    }
+
+    public boolean isTraced() {
+        return isTraced;
+    }
+
+    /**
+     * @param isTraced whether the pairs of a file are traced across the scans, see XicTracer, instead of one
+     *                 precursor per scan where a pair is found.
+     */
+    public void setTraced(boolean isTraced) {
+        this.isTraced = isTraced;
+    }
+
+    public int getMaxGapScanNum() {
+        return maxGapScanNum;
+    }
+
+    /**
+     * @param maxGapScanNum the most consecutive scans a trace may be missed in.
+     */
+    public void setMaxGapScanNum(int maxGapScanNum) {
+        this.maxGapScanNum = maxGapScanNum;
+    }
+
+    public boolean isDeconvolved() {
+        return isDeconvolved;
+    }
+
+    /**
+     * @param isDeconvolved whether the spectra are deconvolved into isotope envelopes first.
+     */
+    public void setDeconvolved(boolean isDeconvolved) {
+        this.isDeconvolved = isDeconvolved;
+    }
+
+    /**
+     * @return the offsets of the labels at the charge states.
+     */
+    public PairOffsetTable getOffsetTable() {
+        if (offsetTable == null) {
+            offsetTable = new PairOffsetTable(labels, maxChargeState);
+        }
+        return offsetTable;
+    }
+
+    /**
+     * @return the deconvolver of the spectra, or null if the peaks are searched.
+     */
+    public Deconvolver getDeconvolver() {
+        if (!isDeconvolved) {
+            return null;
+        }
+        if (deconvolver == null) {
+            // an envelope is paired by its first three peaks;
+            deconvolver = new Deconvolver(errTol, true, maxChargeState, 3, 8);
+        }
+        return deconvolver;
+    }
+
+    @Override
+    public String toString() {
+        return "\n\tPrec_Mass_Err_Tol_By_PPM: " + errTol
+                + "\n\tRelative_Intensity_Threshold: " + relaIntenThreshold
+                + "\n\tPair_Profile_Similarity_Threshold: " + pairProfileSimilarityThreshold
+                + "\n\tMax_Charge_State: " + maxChargeState
+                + "\n\tLabel_Mass_Diffs: " + labels
+                + "\n\tMemory_Mapped_Reading: " + isMapped
+                + "\n\tBinary_Cache: " + isCached
+                + "\n\tThread_Number: " + threadNum
+                + "\n\tWorker_Number_Per_File: " + workerNum
+                + "\n\tMin_RT_By_Minute: " + minRt
+                + "\n\tMax_RT_By_Minute: " + maxRt
+                + "\n\tXIC_Tracing: " + isTraced
+                + "\n\tMax_Gap_Scan_Number: " + maxGapScanNum
+                + "\n\tIsotope_Envelope_Deconvolution: " + isDeconvolved;
+    }
+
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.app;
+
+import java.io.Serializable;
+
+public class PrecInfo implements Comparable<PrecInfo>, Serializable {
+
+    double mz;
+    double h;
+    int z;
+    String filename;
+    double rt;
+    // the index of the label in the LabelSet searched;
+    int labelIdx;
+
+    public PrecInfo(double mz, double h, int z, String filename, double rt) {
+        this(mz, h, z, filename, rt, 0);
+    }
+
+    public PrecInfo(double mz, double h, int z, String filename, double rt, int labelIdx) {
+        this.mz = mz;
+        this.h = h;
+        this.z = z;
+        this.filename = filename;
+        this.rt = rt;
+        this.labelIdx = labelIdx;
+    }
+
+    public PrecInfo(PrecInfo pi) {
+        this.mz = pi.mz;
+        this.h = pi.h;
+        this.z = pi.z;
+        this.filename = pi.filename;
+        this.rt = pi.rt;
+        this.labelIdx = pi.labelIdx;
+    }
+
+    public String toString() {
+        return filename + "," + mz + "," + z + "," + h + "," + rt;
+    }
+
+    @Override
+    public int compareTo(PrecInfo pi) {
+        if (mz > pi.mz) {
+            return 1;
+        } else if (mz < pi.mz) {
+            return -1;
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.app;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hash grid of precursors keyed by charge, m/z bin and retention time bin, so that the precursors near
+ * a given m/z and retention time are found by looking into a few cells instead of the whole list. Any bin
+ * widths give the same candidates; widths close to the tolerances keep the number of cells small.
+ * <p>
+ * A precursor has to be removed before its m/z or retention time is changed, and added back afterwards.
+ */
+class PrecInfoGrid {
+
+    private final double mzBinWidth;
+    private final double rtBinWidth;
+    private final Map<Long, List<PrecInfo>> cells = new HashMap<>();
+
+    /**
+     * Get an empty grid.
+     * @param mzBinWidth the width of an m/z bin.
+     * @param rtBinWidth the width of a retention time bin.
+     */
+    PrecInfoGrid(double mzBinWidth, double rtBinWidth) {
+        this.mzBinWidth = mzBinWidth > 0 ? mzBinWidth : 1;
+        this.rtBinWidth = rtBinWidth > 0 ? rtBinWidth : 1;
+    }
+
+    void add(PrecInfo pi) {
+        Long key = key(pi.z, bin(pi.mz, mzBinWidth), bin(pi.rt, rtBinWidth));
+        List<PrecInfo> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<>(2);
+            cells.put(key, cell);
+        }
+        cell.add(pi);
+    }
+
+    void remove(PrecInfo pi) {
+        Long key = key(pi.z, bin(pi.mz, mzBinWidth), bin(pi.rt, rtBinWidth));
+        List<PrecInfo> cell = cells.get(key);
+        if (cell != null) {
+            for (int i = 0; i < cell.size(); i++) {
+                if (cell.get(i) == pi) {
+                    cell.remove(i);
+                    break;
+                }
+            }
+            if (cell.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Collect the candidates of the precursors with charge z, |m/z - mz| < mzErr and |rt' - rt| <= rtErr.
+     * Every such precursor is collected, along with some others in the neighboring cells, so the caller
+     * still checks the candidates; a precursor may be collected more than once.
+     * @param z the charge state.
+     * @param mz the m/z value.
+     * @param mzErr the m/z tolerance.
+     * @param rt the retention time.
+     * @param rtErr the retention time tolerance.
+     * @param out the list to add the candidates to.
+     */
+    void collect(int z, double mz, double mzErr, double rt, double rtErr, List<PrecInfo> out) {
+        // one more bin on each side, so that a rounding at the edge of the window never misses a cell;
+        long mzBinStart = bin(mz - mzErr, mzBinWidth) - 1;
+        long mzBinEnd = bin(mz + mzErr, mzBinWidth) + 1;
+        long rtBinStart = bin(rt - rtErr, rtBinWidth) - 1;
+        long rtBinEnd = bin(rt + rtErr, rtBinWidth) + 1;
+        for (long mzBin = mzBinStart; mzBin <= mzBinEnd; mzBin++) {
+            for (long rtBin = rtBinStart; rtBin <= rtBinEnd; rtBin++) {
+                List<PrecInfo> cell = cells.get(key(z, mzBin, rtBin));
+                if (cell != null) {
+                    out.addAll(cell);
+                }
+            }
+        }
+    }
+
+    private static long bin(double value, double width) {
+        return (long) Math.floor(value / width);
+    }
+
+    // cells sharing a key by chance only add candidates;
+    private static long key(int z, long mzBin, long rtBin) {
+        return (mzBin * 0x9E3779B97F4A7C15L) ^ (rtBin * 0xC2B2AE3D27D4EB4FL) ^ z;
+    }
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Traces the extracted ion chromatograms of the pairs of one file while the MS1 scans are read. The pairs
+ * found in a scan extend the open traces of the same charge and label within the m/z tolerance, or start
+ * new ones; a trace is closed once it is missed in more than a given number of consecutive scans, and
+ * passed on. Only the open traces are kept, sorted by m/z, so a scan is joined to them in one sweep.
+ */
+public class XicTracer {
+
+    /**
+     * The chromatogram of a pair. It takes the m/z, the intensity and the retention time of its apex.
+     */
+    public static class Trace extends PrecInfo {
+
+        private static final long serialVersionUID = 1L;
+
+        double area;
+        double startRt;
+        int scanNum;
+        // the last point, i.e. the one to be extended;
+        double lastMz;
+        double lastH;
+        double lastRt;
+        int lastScanIdx;
+
+        Trace(PrecInfo pi, int scanIdx) {
+            super(pi);
+            startRt = pi.rt;
+            scanNum = 1;
+            lastMz = pi.mz;
+            lastH = pi.h;
+            lastRt = pi.rt;
+            lastScanIdx = scanIdx;
+        }
+
+        void extend(PrecInfo pi, int scanIdx) {
+            area += (pi.rt - lastRt) * (pi.h + lastH) / 2;
+            if (pi.h > h) {
+                mz = pi.mz;
+                h = pi.h;
+                rt = pi.rt;
+            }
+            scanNum++;
+            lastMz = pi.mz;
+            lastH = pi.h;
+            lastRt = pi.rt;
+            lastScanIdx = scanIdx;
+        }
+
+        /**
+         * @return the area under the chromatogram, 0 for a trace of one scan.
+         */
+        public double getArea() {
+            return area;
+        }
+
+        public double getStartRt() {
+            return startRt;
+        }
+
+        public double getEndRt() {
+            return lastRt;
+        }
+
+        /**
+         * @return the number of scans in which the pair is found.
+         */
+        public int getScanNum() {
+            return scanNum;
+        }
+
+        public String toString() {
+            return super.toString() + "," + area + "," + startRt + "," + lastRt + "," + scanNum;
+        }
+    }
+
+    private final double errTol;
+    private final boolean isPPM;
+    private final int maxGapScanNum;
+    private final List<PrecInfo> traceList;
+
+    // the open traces, sorted by the m/z of their last points;
+    private List<Trace> openList = new ArrayList<>();
+    private List<Trace> nextOpenList = new ArrayList<>();
+    private final List<Trace> newList = new ArrayList<>();
+    // the traces taken in the current scan and their pairs, extended after the sweep;
+    private final List<Trace> takenList = new ArrayList<>();
+    private final List<PrecInfo> takenPiList = new ArrayList<>();
+    private int scanIdx = -1;
+
+    /**
+     * Get a tracer of one file.
+     * @param errTol the m/z tolerance between the points of a trace.
+     * @param isPPM whether the tolerance is in ppm.
+     * @param maxGapScanNum the most consecutive scans a trace may be missed in and still be extended.
+     * @param traceList the list to add the closed traces to.
+     */
+    public XicTracer(double errTol, boolean isPPM, int maxGapScanNum, List<PrecInfo> traceList) {
+        this.errTol = errTol;
+        this.isPPM = isPPM;
+        this.maxGapScanNum = Math.max(0, maxGapScanNum);
+        this.traceList = traceList;
+    }
+
+    /**
+     * Take the pairs of the next scan. Every scan is to be passed, also the ones without a pair, since the
+     * gaps of the traces are counted in scans.
+     * @param piList the pairs found in the scan, sorted by m/z as given by PairFinderInMS1.find.
+     */
+    public void next(List<PrecInfo> piList) {
+        scanIdx++;
+
+        // a trace takes one pair per scan, so a pair goes to the nearest trace not yet taken in the scan; the
+        // traces are only marked in the sweep, and extended after it, since an extension moves the m/z they are
+        // sorted by;
+        int start = 0;
+        for (PrecInfo pi : piList) {
+            double err = isPPM ? pi.mz * errTol / 1E6 : errTol;
+            while (start < openList.size() && openList.get(start).lastMz <= pi.mz - err) {
+                start++;
+            }
+            Trace nearest = null;
+            double minDiff = err;
+            for (int i = start; i < openList.size() && openList.get(i).lastMz < pi.mz + err; i++) {
+                Trace trace = openList.get(i);
+                double diff = Math.abs(trace.lastMz - pi.mz);
+                if (trace.lastScanIdx < scanIdx && trace.z == pi.z && trace.labelIdx == pi.labelIdx
+                        && diff < minDiff) {
+                    minDiff = diff;
+                    nearest = trace;
+                }
+            }
+
+            if (nearest == null) {
+                newList.add(new Trace(pi, scanIdx));
+            } else {
+                nearest.lastScanIdx = scanIdx;
+                takenList.add(nearest);
+                takenPiList.add(pi);
+            }
+        }
+        for (int i = 0; i < takenList.size(); i++) {
+            takenList.get(i).extend(takenPiList.get(i), scanIdx);
+        }
+        takenList.clear();
+        takenPiList.clear();
+
+        // close the traces missed in too many scans, and merge the new ones in;
+        nextOpenList.clear();
+        for (Trace trace : openList) {
+            if (scanIdx - trace.lastScanIdx > maxGapScanNum) {
+                traceList.add(trace);
+            } else {
+                nextOpenList.add(trace);
+            }
+        }
+        nextOpenList.addAll(newList);
+        newList.clear();
+        // the extended traces move a little in m/z, so the list is nearly sorted and the sort is fast;
+        nextOpenList.sort((a, b) -> Double.compare(a.lastMz, b.lastMz));
+        List<Trace> tmp = openList;
+        openList = nextOpenList;
+        nextOpenList = tmp;
+    }
+
+    /**
+     * Close all the open traces, at the end of the file.
+     */
+    public void close() {
+        traceList.addAll(openList);
+        openList.clear();
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.basics.spec;
+
+import java.util.Arrays;
+
+/**
+ * A peak store in primitive arrays on the heap, in double or in float.
+ */
+public class HeapPeakStore implements PeakStore {
+
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private final boolean isFloat;
+    private double[] mzArr;
+    private double[] intenArr;
+    private float[] mzArrF;
+    private float[] intenArrF;
+    private int size = 0;
+
+    /**
+     * Get an empty store.
+     * @param isFloat true to store the values in float, false in double.
+     */
+    public HeapPeakStore(boolean isFloat) {
+        this.isFloat = isFloat;
+        if (isFloat) {
+            mzArrF = new float[4096];
+            intenArrF = new float[4096];
+        } else {
+            mzArr = new double[4096];
+            intenArr = new double[4096];
+        }
+    }
+
+    @Override
+    public void append(double[] mz, double[] h, int num) {
+        if (num > MAX_SIZE - size) {
+            throw new IllegalStateException("Too many peaks for a heap store");
+        }
+        ensureCapacity(size + num);
+        if (isFloat) {
+            for (int i = 0; i < num; i++) {
+                mzArrF[size + i] = (float) mz[i];
+                intenArrF[size + i] = (float) h[i];
+            }
+        } else if (num > 0) {
+            System.arraycopy(mz, 0, mzArr, size, num);
+            System.arraycopy(h, 0, intenArr, size, num);
+        }
+        size += num;
+    }
+
+    private void ensureCapacity(int capacity) {
+        int len = isFloat ? mzArrF.length : mzArr.length;
+        if (capacity <= len) {
+            return;
+        }
+        int newLen = (int) Math.min(MAX_SIZE, Math.max((long) len * 2, capacity));
+        if (isFloat) {
+            mzArrF = Arrays.copyOf(mzArrF, newLen);
+            intenArrF = Arrays.copyOf(intenArrF, newLen);
+        } else {
+            mzArr = Arrays.copyOf(mzArr, newLen);
+            intenArr = Arrays.copyOf(intenArr, newLen);
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public double getMz(long i) {
+        return isFloat ? mzArrF[(int) i] : mzArr[(int) i];
+    }
+
+    @Override
+    public double getInten(long i) {
+        return isFloat ? intenArrF[(int) i] : intenArr[(int) i];
+    }
+
+    @Override
+    public void trim() {
+        if (isFloat) {
+            mzArrF = Arrays.copyOf(mzArrF, size);
+            intenArrF = Arrays.copyOf(intenArrF, size);
+        } else {
+            mzArr = Arrays.copyOf(mzArr, size);
+            intenArr = Arrays.copyOf(intenArr, size);
+        }
+    }
+
+    @Override
+    public void close() {
+        mzArr = null;
+        intenArr = null;
+        mzArrF = null;
+        intenArrF = null;
+    }
+
+}
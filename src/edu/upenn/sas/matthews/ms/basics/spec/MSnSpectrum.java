@@ -27,6 +27,11 @@ public class MSnSpectrum extends MassSpectrum {
         this.msStage = msStage;
     }
 
+    public MSnSpectrum(double[] mzArr, double[] intenArr, int msStage) {
+        super(mzArr, intenArr);
+        this.msStage = msStage;
+    }
+
     /**
      * Get the stage of the current MSn spectrum.
      * @return the stage of the current MSn spectrum.
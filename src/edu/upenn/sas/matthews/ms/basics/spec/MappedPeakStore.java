@@ -0,0 +1,210 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.basics.spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An off-heap peak store in memory-mapped scratch files, one for the m/z column and one for the intensity
+ * column. The files are mapped in fixed-size chunks as the store grows, so the store is limited by the disk
+ * rather than by the heap, and the operating system pages the peaks in and out as they are accessed. The
+ * files grow a chunk at a time, and trim() cuts them down to the peaks. The scratch files are deleted when
+ * the store is closed.
+ */
+public class MappedPeakStore implements PeakStore {
+
+    // 2^20 peaks per chunk, i.e. 4 MB per float chunk and 8 MB per double chunk;
+    private static final int CHUNK_SHIFT = 20;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final boolean isFloat;
+    private final int valueSize;
+    private final File mzFile;
+    private final File intenFile;
+    private final RandomAccessFile mzRaf;
+    private final RandomAccessFile intenRaf;
+    private final List<MappedByteBuffer> mzChunks = new ArrayList<>();
+    private final List<MappedByteBuffer> intenChunks = new ArrayList<>();
+    private long size = 0;
+
+    /**
+     * Get an empty store.
+     * @param scratchDir the folder of the scratch files, or null for the default temporary folder.
+     * @param isFloat true to store the values in float, false in double.
+     * @throws IOException
+     */
+    public MappedPeakStore(File scratchDir, boolean isFloat) throws IOException {
+        this.isFloat = isFloat;
+        valueSize = isFloat ? Float.BYTES : Double.BYTES;
+        mzFile = File.createTempFile("peaks_mz_", ".tmp", scratchDir);
+        intenFile = File.createTempFile("peaks_inten_", ".tmp", scratchDir);
+        mzFile.deleteOnExit();
+        intenFile.deleteOnExit();
+        mzRaf = new RandomAccessFile(mzFile, "rw");
+        intenRaf = new RandomAccessFile(intenFile, "rw");
+    }
+
+    @Override
+    public void append(double[] mz, double[] h, int num) throws IOException {
+        for (int i = 0; i < num; i++) {
+            int chunkIdx = (int) (size >>> CHUNK_SHIFT);
+            int offset = (int) (size & CHUNK_MASK) * valueSize;
+            if (chunkIdx == mzChunks.size()) {
+                mzChunks.add(map(mzRaf, chunkIdx));
+                intenChunks.add(map(intenRaf, chunkIdx));
+            } else if (offset == mzChunks.get(chunkIdx).capacity()) {
+                // the last chunk was cut down by trim();
+                unmap(mzChunks.get(chunkIdx));
+                unmap(intenChunks.get(chunkIdx));
+                mzChunks.set(chunkIdx, map(mzRaf, chunkIdx));
+                intenChunks.set(chunkIdx, map(intenRaf, chunkIdx));
+            }
+            if (isFloat) {
+                mzChunks.get(chunkIdx).putFloat(offset, (float) mz[i]);
+                intenChunks.get(chunkIdx).putFloat(offset, (float) h[i]);
+            } else {
+                mzChunks.get(chunkIdx).putDouble(offset, mz[i]);
+                intenChunks.get(chunkIdx).putDouble(offset, h[i]);
+            }
+            size++;
+        }
+    }
+
+    private MappedByteBuffer map(RandomAccessFile raf, int chunkIdx) throws IOException {
+        return map(raf, chunkIdx, (CHUNK_MASK + 1) * valueSize);
+    }
+
+    /**
+     * Map the first bytes of a chunk; the file grows to cover them.
+     */
+    private MappedByteBuffer map(RandomAccessFile raf, int chunkIdx, long byteNum) throws IOException {
+        long chunkBytes = (CHUNK_MASK + 1) * valueSize;
+        return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, chunkIdx * chunkBytes, byteNum);
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public double getMz(long i) {
+        MappedByteBuffer chunk = mzChunks.get((int) (i >>> CHUNK_SHIFT));
+        int offset = (int) (i & CHUNK_MASK) * valueSize;
+        return isFloat ? chunk.getFloat(offset) : chunk.getDouble(offset);
+    }
+
+    @Override
+    public double getInten(long i) {
+        MappedByteBuffer chunk = intenChunks.get((int) (i >>> CHUNK_SHIFT));
+        int offset = (int) (i & CHUNK_MASK) * valueSize;
+        return isFloat ? chunk.getFloat(offset) : chunk.getDouble(offset);
+    }
+
+    /**
+     * Cut the scratch files down to the peaks. A mapped file cannot be truncated on some systems, e.g.
+     * Windows, so the last chunk is unmapped first, and mapped back over its used part only; a later append
+     * maps it whole again.
+     * @throws IOException
+     */
+    @Override
+    public void trim() throws IOException {
+        int lastIdx = mzChunks.size() - 1;
+        if (lastIdx < 0 || mzChunks.get(lastIdx).capacity() == usedBytes(lastIdx)) {
+            return;
+        }
+        unmap(mzChunks.get(lastIdx));
+        unmap(intenChunks.get(lastIdx));
+        mzRaf.setLength(size * valueSize);
+        intenRaf.setLength(size * valueSize);
+        mzChunks.set(lastIdx, map(mzRaf, lastIdx, usedBytes(lastIdx)));
+        intenChunks.set(lastIdx, map(intenRaf, lastIdx, usedBytes(lastIdx)));
+    }
+
+    /**
+     * @return the number of bytes of a chunk taken by the peaks.
+     */
+    private long usedBytes(int chunkIdx) {
+        return Math.min(size - ((long) chunkIdx << CHUNK_SHIFT), CHUNK_MASK + 1) * valueSize;
+    }
+
+    /**
+     * Unmap the chunks and delete the scratch files. A mapped file cannot be deleted on some systems, e.g.
+     * Windows, so the chunks are unmapped first rather than left to the garbage collector.
+     * @throws IOException if a scratch file cannot be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        // the chunks are dropped before they are unmapped, so a later read fails instead of touching them;
+        List<MappedByteBuffer> chunks = new ArrayList<>(mzChunks);
+        chunks.addAll(intenChunks);
+        mzChunks.clear();
+        intenChunks.clear();
+        for (MappedByteBuffer chunk : chunks) {
+            unmap(chunk);
+        }
+        // the space is released even if a file cannot be deleted;
+        try {
+            mzRaf.setLength(0);
+            intenRaf.setLength(0);
+        } finally {
+            mzRaf.close();
+            intenRaf.close();
+        }
+
+        boolean isMzDeleted = mzFile.delete();
+        boolean isIntenDeleted = intenFile.delete();
+        if (!isMzDeleted || !isIntenDeleted) {
+            throw new IOException("Failed in deleting the scratch file "
+                    + (isMzDeleted ? intenFile : mzFile).getAbsolutePath());
+        }
+    }
+
+    /**
+     * Release the mapping of a buffer at once, through the cleaner of the JDK: Unsafe.invokeCleaner on Java 9
+     * and later, the cleaner of the buffer on Java 8. Where neither is available, the mapping is left to the
+     * garbage collector.
+     */
+    private static void unmap(MappedByteBuffer buf) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buf.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buf);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buf);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // the mapping is released when the buffer is collected;
+        }
+    }
+
+}
@@ -16,7 +16,7 @@ package edu.upenn.sas.matthews.ms.basics.spec;
 
 import java.util.Arrays;
 
-public class MassSpectrum {
+public class MassSpectrum implements Spectrum {
 
 	double[] mzArr;
 	double[] intenArr;
@@ -42,6 +42,16 @@ public class MassSpectrum {
 		}
 	}
 
+	/**
+	 * Get an instance of a mass spectrum from m/z and intensity arrays, which are kept without copying.
+	 * @param mzArr an array of m/z values in ascending order.
+	 * @param intenArr an array of intensity values, with the same length as mzArr.
+	 */
+	public MassSpectrum(double[] mzArr, double[] intenArr) {
+		this.mzArr = mzArr;
+		this.intenArr = intenArr;
+	}
+
 	/**
 	 * Get the retention time of the spectrum.
 	 * @return the retention time of the spectrum.
@@ -90,6 +100,24 @@ public class MassSpectrum {
 		return intenArr;
 	}
 
+	/**
+	 * Get the m/z value of a peak.
+	 * @param i the index of the peak.
+	 * @return the m/z value of the peak.
+	 */
+	public double getMz(int i) {
+		return mzArr[i];
+	}
+
+	/**
+	 * Get the intensity value of a peak.
+	 * @param i the index of the peak.
+	 * @return the intensity value of the peak.
+	 */
+	public double getInten(int i) {
+		return intenArr[i];
+	}
+
 	/**
 	 * Get the number of peaks of the current spectrum.
 	 * @return the number of peaks of the current spectrum.
@@ -177,4 +205,126 @@ public class MassSpectrum {
 		return pos;
 	}
 
+	/**
+	 * Look for the index of a specified m/z value like searchMz(targetMz, errTol, isPPM), but gallop forward
+	 * from a known peak instead of searching the whole peak list, which is faster for targets close above it.
+	 * @param targetMz, the target m/z value.
+	 * @param errTol, the error tolerance.
+	 * @param isPPM, true if the error tolerance is PPM-unit, false otherwise.
+	 * @param fromIdx, the index of a peak whose m/z value is not higher than the target; otherwise the whole
+	 *                 peak list is searched.
+	 * @return the same index as searchMz(targetMz, errTol, isPPM).
+	 */
+	public int searchMz(double targetMz, double errTol, boolean isPPM, int fromIdx) {
+		if (fromIdx < 0 || fromIdx >= mzArr.length || !(mzArr[fromIdx] <= targetMz)) {
+			return searchMz(targetMz, errTol, isPPM);
+		}
+
+		return closestMz(targetMz, errTol, isPPM, lowerBound(targetMz, fromIdx));
+	}
+
+	/**
+	 * Look for the indexes of several m/z values in one forward pass over the peak list, each with the same
+	 * result as searchMz(targetMz, errTol, isPPM). Each target is searched forward from the position of the
+	 * previous one, so a target lower than the previous one costs a full search.
+	 * @param sortedTargets, the target m/z values in ascending order.
+	 * @param errTol, the error tolerance.
+	 * @param isPPM, true if the error tolerance is PPM-unit, false otherwise.
+	 * @param out, the array receiving the index of each target, or -1 if it is not found.
+	 */
+	public void searchMzBatch(double[] sortedTargets, double errTol, boolean isPPM, int[] out) {
+		searchMzBatch(sortedTargets, sortedTargets.length, errTol, isPPM, 0, out);
+	}
+
+	/**
+	 * Look for the indexes of several m/z values in one forward pass which starts at a known peak.
+	 * @param sortedTargets, the target m/z values in ascending order.
+	 * @param targetNum, the number of targets to search.
+	 * @param errTol, the error tolerance.
+	 * @param isPPM, true if the error tolerance is PPM-unit, false otherwise.
+	 * @param fromIdx, the index of a peak whose m/z value is not higher than the first target.
+	 * @param out, the array receiving the index of each target, or -1 if it is not found.
+	 * @see #searchMzBatch(double[], double, boolean, int[])
+	 */
+	public void searchMzBatch(double[] sortedTargets, int targetNum, double errTol, boolean isPPM, int fromIdx,
+							  int[] out) {
+		if (targetNum == 0) {
+			return;
+		}
+
+		// every peak before pos is lower than the current target;
+		int pos = (fromIdx >= 0 && fromIdx < mzArr.length && mzArr[fromIdx] <= sortedTargets[0]) ? fromIdx : 0;
+		for (int i = 0; i < targetNum; i++) {
+			double targetMz = sortedTargets[i];
+			if (i > 0 && !(targetMz >= sortedTargets[i - 1])) {
+				pos = 0;
+			}
+			pos = lowerBound(targetMz, pos);
+			out[i] = closestMz(targetMz, errTol, isPPM, pos);
+		}
+	}
+
+	/**
+	 * Gallop forward to the first peak whose m/z value is not lower than the target.
+	 * @param fromIdx, an index such that all peaks before it are lower than the target.
+	 * @return the index of the first peak not lower than the target, or the number of peaks if there is none.
+	 */
+	private int lowerBound(double targetMz, int fromIdx) {
+		int len = mzArr.length;
+		if (fromIdx >= len || mzArr[fromIdx] >= targetMz) {
+			return fromIdx;
+		}
+
+		int lo = fromIdx;
+		int step = 1;
+		while (lo + step < len && mzArr[lo + step] < targetMz) {
+			lo += step;
+			step <<= 1;
+		}
+		int hi = Math.min(lo + step, len);
+		lo++;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (mzArr[mid] < targetMz) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+
+		return lo;
+	}
+
+	/**
+	 * Pick the closest peak around the first peak not lower than the target, by the rules of searchMz.
+	 * @param pos, the index of the first peak whose m/z value is not lower than the target.
+	 */
+	private int closestMz(double targetMz, double errTol, boolean isPPM, int pos) {
+		int len = mzArr.length;
+		if (pos < len && mzArr[pos] == targetMz) {
+			// the binary search may return any of equal m/z values;
+			if ((pos + 1 < len && mzArr[pos + 1] == targetMz) || (pos > 0 && mzArr[pos - 1] == targetMz)) {
+				return searchMz(targetMz, errTol, isPPM);
+			}
+			return pos;
+		}
+		if (pos == 0) {
+			return -1;
+		}
+
+		// Calculate the absolute error tolerance
+		errTol = isPPM ? targetMz * errTol / 1E6 : errTol;
+
+		double prevErr = Math.abs(targetMz - mzArr[pos - 1]);
+		if (pos == len) {
+			return prevErr <= errTol ? pos - 1 : -1;
+		}
+
+		double err = Math.abs(targetMz - mzArr[pos]);
+		if (err <= errTol) {
+			return err < prevErr ? pos : pos - 1;
+		}
+		return prevErr <= errTol ? pos - 1 : -1;
+	}
+
 }
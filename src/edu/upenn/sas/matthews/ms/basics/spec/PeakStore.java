@@ -0,0 +1,66 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.basics.spec;
+
+import java.io.IOException;
+
+/**
+ * The backing store of the m/z and intensity columns of a SpectrumRun. Peaks are appended once and read
+ * by their global index in the run.
+ */
+public interface PeakStore {
+
+    /**
+     * Append peaks to the end of the store.
+     * @param mzArr an array of m/z values.
+     * @param intenArr an array of intensity values.
+     * @param num the number of peaks to append from the arrays.
+     * @throws IOException
+     */
+    public void append(double[] mzArr, double[] intenArr, int num) throws IOException;
+
+    /**
+     * Gets the number of peaks in the store.
+     * @return the number of peaks in the store.
+     */
+    public long size();
+
+    /**
+     * Gets the m/z value of a peak.
+     * @param i the global index of the peak.
+     * @return the m/z value of the peak.
+     */
+    public double getMz(long i);
+
+    /**
+     * Gets the intensity value of a peak.
+     * @param i the global index of the peak.
+     * @return the intensity value of the peak.
+     */
+    public double getInten(long i);
+
+    /**
+     * Release the unused capacity after the last peak is appended.
+     * @throws IOException
+     */
+    public void trim() throws IOException;
+
+    /**
+     * Release the resources of the store; the store cannot be used afterwards.
+     * @throws IOException
+     */
+    public void close() throws IOException;
+
+}
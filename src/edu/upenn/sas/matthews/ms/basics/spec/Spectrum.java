@@ -0,0 +1,78 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.basics.spec;
+
+/**
+ * The read-only view of a spectrum, shared by MassSpectrum and the Scan views of a SpectrumRun, so that the
+ * searches run on either. The peaks are in ascending order of m/z.
+ */
+public interface Spectrum {
+
+    public int getNumPeaks();
+
+    /**
+     * Get the m/z value of a peak.
+     * @param i the index of the peak.
+     * @return the m/z value of the peak.
+     */
+    public double getMz(int i);
+
+    /**
+     * Get the intensity value of a peak.
+     * @param i the index of the peak.
+     * @return the intensity value of the peak.
+     */
+    public double getInten(int i);
+
+    /**
+     * Get the m/z values of the peaks; the array must not be modified.
+     * @return an array of m/z values.
+     */
+    public double[] getMzArr();
+
+    /**
+     * Get the intensity values of the peaks; the array must not be modified.
+     * @return an array of intensity values.
+     */
+    public double[] getIntenArr();
+
+    public int getScanNumber();
+
+    public float getRt();
+
+    public double getTic();
+
+    /**
+     * @see MassSpectrum#searchMz(double, double, boolean)
+     */
+    public int searchMz(double targetMz, double errTol, boolean isPPM);
+
+    /**
+     * @see MassSpectrum#searchMz(double, double, boolean, int)
+     */
+    public int searchMz(double targetMz, double errTol, boolean isPPM, int fromIdx);
+
+    /**
+     * @see MassSpectrum#searchMzBatch(double[], double, boolean, int[])
+     */
+    public void searchMzBatch(double[] sortedTargets, double errTol, boolean isPPM, int[] out);
+
+    /**
+     * @see MassSpectrum#searchMzBatch(double[], int, double, boolean, int, int[])
+     */
+    public void searchMzBatch(double[] sortedTargets, int targetNum, double errTol, boolean isPPM, int fromIdx,
+                              int[] out);
+
+}
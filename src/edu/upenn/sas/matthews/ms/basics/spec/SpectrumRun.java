@@ -0,0 +1,475 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.basics.spec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * All spectra of an LC-MS run in a columnar layout: the peaks of all scans are stored back to back in the
+ * m/z and intensity columns of a PeakStore, with a table of the first peak of each scan. Scans are read
+ * through Scan views, which read and search the peaks in the store, and copy them only for getMzArr and
+ * getIntenArr.
+ * <p>
+ * With float storage, the m/z and intensity values take half of the memory. This is lossless for spectra
+ * read by MSnFileReader, which parses the values as floats. With a MappedPeakStore, the peaks are kept off
+ * the heap, and only the scan table stays on the heap.
+ */
+public class SpectrumRun {
+
+    // peak columns;
+    private final PeakStore store;
+
+    // scan table, peakStartArr[i] is the index of the first peak of scan i;
+    private int scanNum = 0;
+    private long[] peakStartArr;
+    private int[] scanNumberArr;
+    private float[] rtArr;
+    private byte[] msStageArr;
+    private double[] precMzArr;
+    private int[] precZArr;
+    private int[] precScanNumberArr;
+    private double[] ticArr;
+    // whether the scan numbers ascend, as in the files, so that a scan is looked up by binary search;
+    private boolean isSorted = true;
+
+    /**
+     * Get an empty run with its peaks on the heap.
+     * @param isFloat true to store the m/z and intensity values in float, false in double.
+     */
+    public SpectrumRun(boolean isFloat) {
+        this(new HeapPeakStore(isFloat));
+    }
+
+    /**
+     * Get an empty run.
+     * @param store an empty store for the peaks.
+     */
+    public SpectrumRun(PeakStore store) {
+        this.store = store;
+
+        int capacity = 256;
+        peakStartArr = new long[capacity + 1];
+        scanNumberArr = new int[capacity];
+        rtArr = new float[capacity];
+        msStageArr = new byte[capacity];
+        precMzArr = new double[capacity];
+        precZArr = new int[capacity];
+        precScanNumberArr = new int[capacity];
+        ticArr = new double[capacity];
+    }
+
+    /**
+     * Append a spectrum to the run; its peaks are copied into the run.
+     * @param spec an MSn spectrum.
+     * @throws IOException
+     */
+    public void add(MSnSpectrum spec) throws IOException {
+        store.append(spec.getMzArr(), spec.getIntenArr(), spec.getNumPeaks());
+
+        if (scanNum == scanNumberArr.length) {
+            int capacity = scanNum * 2;
+            peakStartArr = Arrays.copyOf(peakStartArr, capacity + 1);
+            scanNumberArr = Arrays.copyOf(scanNumberArr, capacity);
+            rtArr = Arrays.copyOf(rtArr, capacity);
+            msStageArr = Arrays.copyOf(msStageArr, capacity);
+            precMzArr = Arrays.copyOf(precMzArr, capacity);
+            precZArr = Arrays.copyOf(precZArr, capacity);
+            precScanNumberArr = Arrays.copyOf(precScanNumberArr, capacity);
+            ticArr = Arrays.copyOf(ticArr, capacity);
+        }
+        if (scanNum > 0 && spec.getScanNumber() <= scanNumberArr[scanNum - 1]) {
+            isSorted = false;
+        }
+        scanNumberArr[scanNum] = spec.getScanNumber();
+        rtArr[scanNum] = spec.getRt();
+        msStageArr[scanNum] = (byte) spec.getMsStage();
+        precMzArr[scanNum] = spec.getPrecMz();
+        precZArr[scanNum] = spec.getPrecZ();
+        precScanNumberArr[scanNum] = spec.getPrecScanNumber();
+        ticArr[scanNum] = spec.getTic();
+        scanNum++;
+        peakStartArr[scanNum] = store.size();
+    }
+
+    /**
+     * Release the unused capacity of the peak store, e.g. after the last spectrum is added.
+     * @throws IOException
+     */
+    public void trim() throws IOException {
+        store.trim();
+    }
+
+    /**
+     * Release the peak store; the run cannot be used afterwards.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        store.close();
+    }
+
+    /**
+     * Get the store of the peaks.
+     * @return the store of the peaks.
+     */
+    public PeakStore getPeakStore() {
+        return store;
+    }
+
+    /**
+     * Get the number of scans in the run.
+     * @return the number of scans in the run.
+     */
+    public int size() {
+        return scanNum;
+    }
+
+    /**
+     * Get the number of peaks of all scans in the run.
+     * @return the number of peaks of all scans in the run.
+     */
+    public long getPeakNum() {
+        return store.size();
+    }
+
+    /**
+     * Look for the position of a scan in the run.
+     * @param scanNumber the scan number.
+     * @return the position of the scan, or -1 if the scan is not in the run.
+     */
+    public int indexOf(int scanNumber) {
+        if (isSorted) {
+            int pos = Arrays.binarySearch(scanNumberArr, 0, scanNum, scanNumber);
+            return pos >= 0 ? pos : -1;
+        }
+        for (int i = 0; i < scanNum; i++) {
+            if (scanNumberArr[i] == scanNumber) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get a view of a scan.
+     * @param i the position of the scan in the run.
+     * @return a view of the scan.
+     */
+    public Scan getScan(int i) {
+        return getScan(i, new Scan());
+    }
+
+    /**
+     * Point a view to a scan, so that a single view can walk through the run without allocation.
+     * @param i the position of the scan in the run.
+     * @param view the view to reuse.
+     * @return the given view, pointed to the scan.
+     */
+    public Scan getScan(int i, Scan view) {
+        if (i < 0 || i >= scanNum) {
+            throw new IndexOutOfBoundsException("Scan " + i + " of " + scanNum);
+        }
+        if (view.run != this || view.idx != i) {
+            view.peaks = null;
+        }
+        view.run = this;
+        view.idx = i;
+        view.start = peakStartArr[i];
+        view.end = peakStartArr[i + 1];
+        return view;
+    }
+
+    double mzAt(long i) {
+        return store.getMz(i);
+    }
+
+    double intenAt(long i) {
+        return store.getInten(i);
+    }
+
+    /**
+     * A flyweight view of one scan of a run, with the getters of MSnSpectrum. The peaks, the searches and the
+     * header values are read from the run in place, so walking a run through getMz, getInten and the searches
+     * allocates nothing. getMzArr and getIntenArr are a fallback for code that needs the peaks in arrays: the
+     * peaks of the scan are copied into double arrays at the first such call, and shared by the later calls
+     * until the view is pointed to another scan.
+     */
+    public static class Scan implements Spectrum {
+
+        private SpectrumRun run;
+        private int idx = -1;
+        private long start;
+        private long end;
+        // the peaks copied out of the run, or null until an array-based method is called;
+        private MassSpectrum peaks;
+
+        public int getNumPeaks() {
+            return (int) (end - start);
+        }
+
+        /**
+         * Get the m/z value of a peak.
+         * @param i the index of the peak in the scan.
+         * @return the m/z value of the peak.
+         */
+        public double getMz(int i) {
+            return run.mzAt(start + i);
+        }
+
+        /**
+         * Get the intensity value of a peak.
+         * @param i the index of the peak in the scan.
+         * @return the intensity value of the peak.
+         */
+        public double getInten(int i) {
+            return run.intenAt(start + i);
+        }
+
+        /**
+         * Get the m/z values of the scan, copied at the first call for the scan; the array must not be modified.
+         * Prefer getMz, which reads the store in place.
+         * @return an array of m/z values.
+         */
+        public double[] getMzArr() {
+            return peaks().getMzArr();
+        }
+
+        /**
+         * Get the intensity values of the scan, copied at the first call for the scan; the array must not be
+         * modified. Prefer getInten, which reads the store in place.
+         * @return an array of intensity values.
+         */
+        public double[] getIntenArr() {
+            return peaks().getIntenArr();
+        }
+
+        private MassSpectrum peaks() {
+            if (peaks == null) {
+                peaks = new MassSpectrum(copyMzArr(), copyIntenArr());
+            }
+            return peaks;
+        }
+
+        private double[] copyMzArr() {
+            double[] ret = new double[getNumPeaks()];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = run.mzAt(start + i);
+            }
+            return ret;
+        }
+
+        private double[] copyIntenArr() {
+            double[] ret = new double[getNumPeaks()];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = run.intenAt(start + i);
+            }
+            return ret;
+        }
+
+        public int getScanNumber() {
+            return run.scanNumberArr[idx];
+        }
+
+        public float getRt() {
+            return run.rtArr[idx];
+        }
+
+        public int getMsStage() {
+            return run.msStageArr[idx];
+        }
+
+        public double getPrecMz() {
+            return run.precMzArr[idx];
+        }
+
+        public int getPrecZ() {
+            return run.precZArr[idx];
+        }
+
+        public int getPrecScanNumber() {
+            return run.precScanNumberArr[idx];
+        }
+
+        public double getTic() {
+            return run.ticArr[idx];
+        }
+
+        /**
+         * Look for the index of a specified m/z value in the peaks of the scan, the same as MassSpectrum.searchMz.
+         * @param targetMz, the target m/z value.
+         * @param errTol, the error tolerance.
+         * @param isPPM, true if the error tolerance is PPM-unit, false otherwise.
+         * @return the index of the closest peak in the scan within the tolerance, or -1 if there is none.
+         */
+        public int searchMz(double targetMz, double errTol, boolean isPPM) {
+            int len = getNumPeaks();
+            if (len == 0) {
+                return -1;
+            }
+
+            // Calculate the absolute error tolerance
+            errTol = isPPM ? targetMz * errTol / 1E6 : errTol;
+
+            // look for the first peak not lower than the target;
+            long lo = start;
+            long hi = end;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (run.mzAt(mid) < targetMz) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int pos = (int) (lo - start);
+            if (pos < len && run.mzAt(lo) == targetMz) {
+                return pos;
+            }
+            if (pos == 0) {
+                return -1;
+            }
+
+            double prevErr = Math.abs(targetMz - run.mzAt(lo - 1));
+            if (pos == len) {
+                return prevErr <= errTol ? pos - 1 : -1;
+            }
+
+            double err = Math.abs(targetMz - run.mzAt(lo));
+            if (err <= errTol && err < prevErr) {
+                return pos;
+            }
+            return prevErr <= errTol ? pos - 1 : -1;
+        }
+
+        /**
+         * Gallop forward from a known peak, the same as MassSpectrum.searchMz(targetMz, errTol, isPPM, fromIdx).
+         * @see MassSpectrum#searchMz(double, double, boolean, int)
+         */
+        public int searchMz(double targetMz, double errTol, boolean isPPM, int fromIdx) {
+            if (fromIdx < 0 || fromIdx >= getNumPeaks() || !(getMz(fromIdx) <= targetMz)) {
+                return searchMz(targetMz, errTol, isPPM);
+            }
+
+            return closestMz(targetMz, errTol, isPPM, lowerBound(targetMz, fromIdx));
+        }
+
+        /**
+         * @see MassSpectrum#searchMzBatch(double[], double, boolean, int[])
+         */
+        public void searchMzBatch(double[] sortedTargets, double errTol, boolean isPPM, int[] out) {
+            searchMzBatch(sortedTargets, sortedTargets.length, errTol, isPPM, 0, out);
+        }
+
+        /**
+         * @see MassSpectrum#searchMzBatch(double[], int, double, boolean, int, int[])
+         */
+        public void searchMzBatch(double[] sortedTargets, int targetNum, double errTol, boolean isPPM, int fromIdx,
+                                  int[] out) {
+            if (targetNum == 0) {
+                return;
+            }
+
+            // every peak before pos is lower than the current target;
+            int pos = (fromIdx >= 0 && fromIdx < getNumPeaks() && getMz(fromIdx) <= sortedTargets[0]) ? fromIdx : 0;
+            for (int i = 0; i < targetNum; i++) {
+                double targetMz = sortedTargets[i];
+                if (i > 0 && !(targetMz >= sortedTargets[i - 1])) {
+                    pos = 0;
+                }
+                pos = lowerBound(targetMz, pos);
+                out[i] = closestMz(targetMz, errTol, isPPM, pos);
+            }
+        }
+
+        /**
+         * Gallop forward to the first peak whose m/z value is not lower than the target, as in MassSpectrum.
+         * @param fromIdx, an index such that all peaks before it are lower than the target.
+         */
+        private int lowerBound(double targetMz, int fromIdx) {
+            int len = getNumPeaks();
+            if (fromIdx >= len || getMz(fromIdx) >= targetMz) {
+                return fromIdx;
+            }
+
+            int lo = fromIdx;
+            int step = 1;
+            while (lo + step < len && getMz(lo + step) < targetMz) {
+                lo += step;
+                step <<= 1;
+            }
+            int hi = Math.min(lo + step, len);
+            lo++;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (getMz(mid) < targetMz) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+
+            return lo;
+        }
+
+        /**
+         * Pick the closest peak around the first peak not lower than the target, by the rules of searchMz.
+         */
+        private int closestMz(double targetMz, double errTol, boolean isPPM, int pos) {
+            int len = getNumPeaks();
+            if (pos < len && getMz(pos) == targetMz) {
+                // the first of equal m/z values, the same as searchMz(targetMz, errTol, isPPM) of the scan;
+                return pos;
+            }
+            if (pos == 0) {
+                return -1;
+            }
+
+            // Calculate the absolute error tolerance
+            errTol = isPPM ? targetMz * errTol / 1E6 : errTol;
+
+            double prevErr = Math.abs(targetMz - getMz(pos - 1));
+            if (pos == len) {
+                return prevErr <= errTol ? pos - 1 : -1;
+            }
+
+            double err = Math.abs(targetMz - getMz(pos));
+            if (err <= errTol) {
+                return err < prevErr ? pos : pos - 1;
+            }
+            return prevErr <= errTol ? pos - 1 : -1;
+        }
+
+        /**
+         * Copy the scan into a standalone spectrum.
+         * @return an MSn spectrum holding a copy of the peaks.
+         */
+        public MSnSpectrum toSpectrum() {
+            MSnSpectrum ret = new MSnSpectrum(copyMzArr(), copyIntenArr(), getMsStage());
+            ret.setScanNumber(getScanNumber());
+            ret.setRt(getRt());
+            ret.tic = getTic();
+            ret.setPrecMz(getPrecMz());
+            ret.setPrecZ(getPrecZ());
+            ret.setPrecScanNumber(getPrecScanNumber());
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return "MS" + getMsStage() + " Spectrum, Scan " + getScanNumber() + ", RT " + getRt();
+        }
+    }
+
+}
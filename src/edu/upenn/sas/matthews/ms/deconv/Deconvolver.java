@@ -0,0 +1,295 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.deconv;
+
+import edu.upenn.sas.matthews.ms.basics.Constants;
+import edu.upenn.sas.matthews.ms.basics.spec.Spectrum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns a spectrum into the isotope envelopes of its ions in one pass over the peaks, in the order of m/z.
+ * The lowest peak not yet in an envelope, or the most intense peak within the tolerance of it, is taken as a
+ * monoisotopic peak, and its isotope peaks are searched forward from it at each charge state, from the
+ * highest down; the first charge state with enough isotope peaks wins, and the peaks are assigned to the
+ * envelope. An envelope is unimodal, so a rise after a fall ends it, being the start of the next one. The
+ * first isotope peaks of all the charge states are found in one scan of the window of about 1 Th above the
+ * peak, whose start is found by a cursor moving forward with the peaks. The pass thus takes O(n * w) time for
+ * n peaks and w peaks in such a window: linear in the length of a spectrum at a given density, but not in the
+ * density itself.
+ * <p>
+ * An instance keeps no state of a spectrum, so it is shared by all the threads.
+ */
+public class Deconvolver {
+
+    // the mean number of extra neutrons of an averagine peptide per Da, e.g. 1.24 at 2000 Da;
+    private static final double AVERAGINE_NEUTRON_PER_DA = 6.22E-4;
+    // a first peak lower than this ratio of its expected height, from the second, is noise before the envelope;
+    private static final double MIN_LEAD_RATIO = 0.25;
+
+    private final double errTol;
+    private final boolean isPPM;
+    private final int maxChargeState;
+    private final int minPeakNum;
+    private final int maxPeakNum;
+    // the m/z offset of the k-th isotope peak at each charge state, indexed by the charge state;
+    private final double[][] isoStepArr;
+
+    /**
+     * Get a deconvolver of envelopes of 2 to 8 peaks.
+     * @param errTol the m/z tolerance of an isotope peak.
+     * @param isPPM whether the tolerance is in ppm.
+     * @param maxChargeState the highest charge state.
+     */
+    public Deconvolver(double errTol, boolean isPPM, int maxChargeState) {
+        this(errTol, isPPM, maxChargeState, 2, 8);
+    }
+
+    /**
+     * Get a deconvolver.
+     * @param errTol the m/z tolerance of an isotope peak.
+     * @param isPPM whether the tolerance is in ppm.
+     * @param maxChargeState the highest charge state.
+     * @param minPeakNum the fewest peaks of an envelope, at least 2; the peaks of no envelope are dropped.
+     * @param maxPeakNum the most peaks of an envelope.
+     */
+    public Deconvolver(double errTol, boolean isPPM, int maxChargeState, int minPeakNum, int maxPeakNum) {
+        this.errTol = errTol;
+        this.isPPM = isPPM;
+        this.maxChargeState = maxChargeState;
+        this.minPeakNum = Math.max(2, minPeakNum);
+        this.maxPeakNum = Math.max(this.minPeakNum, maxPeakNum);
+        isoStepArr = new double[Math.max(maxChargeState + 1, 1)][this.maxPeakNum];
+        for (int z = 1; z <= maxChargeState; z++) {
+            for (int k = 1; k < this.maxPeakNum; k++) {
+                isoStepArr[z][k] = k * Constants.NEUTRON_MASS / z;
+            }
+        }
+    }
+
+    public int getMaxChargeState() {
+        return maxChargeState;
+    }
+
+    public int getMinPeakNum() {
+        return minPeakNum;
+    }
+
+    /**
+     * Deconvolve a spectrum.
+     * @return the envelopes in the order of their monoisotopic m/z.
+     */
+    public List<IsotopeEnvelope> deconvolve(Spectrum spec) {
+        return deconvolve(spec, 0);
+    }
+
+    /**
+     * Deconvolve a spectrum, starting the envelopes only at the peaks of at least a given intensity; the lower
+     * peaks are still taken as isotope peaks. The pass then costs little for the many low peaks of a dense
+     * spectrum.
+     * @param minInten the least intensity of a monoisotopic peak.
+     * @return the envelopes in the order of their monoisotopic m/z.
+     */
+    public List<IsotopeEnvelope> deconvolve(Spectrum spec, double minInten) {
+        List<IsotopeEnvelope> envList = new ArrayList<>();
+        int peakNum = spec.getNumPeaks();
+        if (peakNum == 0 || maxChargeState < 1) {
+            return envList;
+        }
+        boolean[] assignedArr = new boolean[peakNum];
+        int[] posArr = new int[maxPeakNum];
+        // the first isotope peak at each charge state of the current peak;
+        int[] iso1PosArr = new int[maxChargeState + 1];
+        // the first isotope peaks of all the charge states lie in a window a fixed step above a peak, so the
+        // window is found by a cursor moving forward with the peaks;
+        int cursor = 0;
+
+        boolean isSorted = true;
+        for (int i = 0; i < peakNum; i++) {
+            double h = spec.getInten(i);
+            if (assignedArr[i] || h < minInten) {
+                continue;
+            }
+
+            // of the peaks within the tolerance of each other, the most intense one is the monoisotopic peak;
+            int mono = i;
+            double monoH = h;
+            double mz = spec.getMz(i);
+            double err = isPPM ? mz * errTol / 1E6 : errTol;
+            for (int j = i + 1; j < peakNum && spec.getMz(j) - mz <= err; j++) {
+                if (!assignedArr[j] && spec.getInten(j) > monoH) {
+                    mono = j;
+                    monoH = spec.getInten(j);
+                }
+            }
+
+            double lowMz = isPPM ? (mz + isoStepArr[maxChargeState][1]) * (1 - errTol / 1E6)
+                    : mz + isoStepArr[maxChargeState][1] - errTol;
+            while (cursor < peakNum && spec.getMz(cursor) < lowMz) {
+                cursor++;
+            }
+            if (!searchIso1(spec, mono, cursor, iso1PosArr)) {
+                continue;
+            }
+
+            for (int z = maxChargeState; z >= 1; z--) {
+                if (iso1PosArr[z] < 0) {
+                    continue;
+                }
+                int num = extend(spec, mono, z, iso1PosArr[z], assignedArr, posArr);
+                if (num < minPeakNum) {
+                    continue;
+                }
+
+                // a first peak far below the height expected from the second one is dropped, so the envelope
+                // starts at its true monoisotopic peak; if too few peaks are left, the peaks are rather
+                // every other isotope peak of a higher charge state;
+                int start = 0;
+                double lambda = (spec.getMz(mono) - Constants.PROTON_MASS) * z * AVERAGINE_NEUTRON_PER_DA;
+                if (spec.getInten(posArr[0]) * lambda < MIN_LEAD_RATIO * spec.getInten(posArr[1])) {
+                    if (num == minPeakNum) {
+                        continue;
+                    }
+                    start = 1;
+                }
+                isSorted &= start == 0 && mono == i;
+
+                for (int k = start; k < num; k++) {
+                    assignedArr[posArr[k]] = true;
+                }
+                envList.add(newEnvelope(spec, z, posArr, start, num));
+                break;
+            }
+        }
+
+        // an envelope without its first peak, or not starting at its lowest peak, may start above the next one;
+        if (!isSorted) {
+            envList.sort((a, b) -> Double.compare(a.monoMz, b.monoMz));
+        }
+        return envList;
+    }
+
+    /**
+     * Get the envelope at a charge state of the peak nearest to an m/z value, whether its peaks are in other
+     * envelopes or not, e.g. for a peak too low to start an envelope.
+     * @return the envelope, or null if the peak or enough isotope peaks are not found.
+     */
+    public IsotopeEnvelope getEnvelope(Spectrum spec, double mz, int z) {
+        int pos = spec.searchMz(mz, errTol, isPPM);
+        if (pos < 0 || z < 1 || z > maxChargeState) {
+            return null;
+        }
+        int[] posArr = new int[maxPeakNum];
+        int num = extend(spec, pos, z, spec.searchMz(spec.getMz(pos) + isoStepArr[z][1], errTol, isPPM, pos),
+                null, posArr);
+        return num < minPeakNum ? null : newEnvelope(spec, z, posArr, 0, num);
+    }
+
+    private static IsotopeEnvelope newEnvelope(Spectrum spec, int z, int[] posArr, int start, int end) {
+        int[] peakIdxArr = new int[end - start];
+        double[] envHArr = new double[end - start];
+        for (int k = start; k < end; k++) {
+            peakIdxArr[k - start] = posArr[k];
+            envHArr[k - start] = spec.getInten(posArr[k]);
+        }
+        double monoMz = spec.getMz(peakIdxArr[0]);
+        return new IsotopeEnvelope(monoMz, z, peakIdxArr, envHArr,
+                score(envHArr, (monoMz - Constants.PROTON_MASS) * z * AVERAGINE_NEUTRON_PER_DA));
+    }
+
+    /**
+     * Look for the first isotope peak of a peak at each charge state in one scan of the window above it, the
+     * charge state of a peak in the window being given by its distance. At each charge state the peak nearest
+     * to the expected m/z within the tolerance is taken, the same as by MassSpectrum.searchMz. The scan reads
+     * every peak of the window, from 1 / maxChargeState to 1 Th above the peak; one forward cursor per charge
+     * state would read O(maxChargeState) peaks instead, but costs more on the sparse windows of MS1 spectra.
+     * @param fromIdx the index of a peak not higher than any first isotope peak.
+     * @param iso1PosArr the array receiving the index of the first isotope peak at each charge state, or -1.
+     * @return whether a first isotope peak is found at any charge state.
+     */
+    private boolean searchIso1(Spectrum spec, int idx, int fromIdx, int[] iso1PosArr) {
+        double mz0 = spec.getMz(idx);
+        double highMz = mz0 + isoStepArr[1][1];
+        highMz += isPPM ? highMz * errTol / 1E6 : errTol;
+        Arrays.fill(iso1PosArr, -1);
+        boolean isFound = false;
+        int peakNum = spec.getNumPeaks();
+        double mz;
+        for (int j = Math.max(fromIdx, idx + 1); j < peakNum && (mz = spec.getMz(j)) <= highMz; j++) {
+            int z = (int) (Constants.NEUTRON_MASS / (mz - mz0) + 0.5);
+            if (z < 1 || z > maxChargeState) {
+                continue;
+            }
+            double targetMz = mz0 + isoStepArr[z][1];
+            double diff = Math.abs(mz - targetMz);
+            if (diff <= (isPPM ? targetMz * errTol / 1E6 : errTol)
+                    && (iso1PosArr[z] < 0 || diff < Math.abs(spec.getMz(iso1PosArr[z]) - targetMz))) {
+                iso1PosArr[z] = j;
+                isFound = true;
+            }
+        }
+        return isFound;
+    }
+
+    /**
+     * Collect the isotope peaks of a peak at a charge state, the ones after the first isotope peak being
+     * searched forward from the previous one.
+     * @param iso1Pos the index of the first isotope peak, or -1 if there is none.
+     * @param assignedArr whether each peak is in an envelope already, or null to take all the peaks.
+     * @param posArr the array receiving the indexes of the peaks, the peak itself first.
+     * @return the number of peaks.
+     */
+    private int extend(Spectrum spec, int idx, int z, int iso1Pos, boolean[] assignedArr, int[] posArr) {
+        double mz0 = spec.getMz(idx);
+        posArr[0] = idx;
+        int num = 1;
+        for (int k = 1; k < maxPeakNum; k++) {
+            int prev = posArr[num - 1];
+            int pos = k == 1 ? iso1Pos : spec.searchMz(mz0 + isoStepArr[z][k], errTol, isPPM, prev);
+            if (pos <= prev || (assignedArr != null && assignedArr[pos])) {
+                break;
+            }
+            // a rise after a fall is the next envelope;
+            double prevH = spec.getInten(prev);
+            if (num >= 2 && spec.getInten(pos) > prevH && prevH < spec.getInten(posArr[num - 2])) {
+                break;
+            }
+            posArr[num++] = pos;
+        }
+        return num;
+    }
+
+    /**
+     * @return the cosine similarity of the intensities to a Poisson distribution of the extra neutrons.
+     */
+    private static double score(double[] hArr, double lambda) {
+        double expected = 1;
+        double dot = 0;
+        double norm1 = 0;
+        double norm2 = 0;
+        for (int k = 0; k < hArr.length; k++) {
+            if (k > 0) {
+                expected *= lambda / k;
+            }
+            dot += hArr[k] * expected;
+            norm1 += hArr[k] * hArr[k];
+            norm2 += expected * expected;
+        }
+        return norm1 > 0 ? dot / Math.sqrt(norm1 * norm2) : 0;
+    }
+
+}
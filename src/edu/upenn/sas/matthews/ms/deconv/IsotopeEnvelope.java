@@ -0,0 +1,94 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.deconv;
+
+import edu.upenn.sas.matthews.ms.basics.Constants;
+
+/**
+ * The isotope envelope of one ion in a spectrum, i.e. its monoisotopic peak and the isotope peaks above it,
+ * as given by Deconvolver.
+ */
+public class IsotopeEnvelope {
+
+    final double monoMz;
+    final int z;
+    // the indexes and intensities of the peaks in the spectrum, from the monoisotopic one up;
+    final int[] peakIdxArr;
+    final double[] hArr;
+    final double intensity;
+    final double score;
+
+    IsotopeEnvelope(double monoMz, int z, int[] peakIdxArr, double[] hArr, double score) {
+        this.monoMz = monoMz;
+        this.z = z;
+        this.peakIdxArr = peakIdxArr;
+        this.hArr = hArr;
+        double sum = 0;
+        for (double h : hArr) {
+            sum += h;
+        }
+        this.intensity = sum;
+        this.score = score;
+    }
+
+    public double getMonoMz() {
+        return monoMz;
+    }
+
+    /**
+     * @return the neutral monoisotopic mass.
+     */
+    public double getMass() {
+        return (monoMz - Constants.PROTON_MASS) * z;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    /**
+     * @return the summed intensity of the peaks of the envelope.
+     */
+    public double getIntensity() {
+        return intensity;
+    }
+
+    /**
+     * @return the cosine similarity of the intensities to the averagine isotope distribution of the mass.
+     */
+    public double getScore() {
+        return score;
+    }
+
+    public int getPeakNum() {
+        return peakIdxArr.length;
+    }
+
+    /**
+     * @return the index in the spectrum of the k-th peak, the monoisotopic one being the 0-th.
+     */
+    public int getPeakIdx(int k) {
+        return peakIdxArr[k];
+    }
+
+    public double getPeakInten(int k) {
+        return hArr[k];
+    }
+
+    public String toString() {
+        return getMass() + "," + z + "," + intensity + "," + score;
+    }
+
+}
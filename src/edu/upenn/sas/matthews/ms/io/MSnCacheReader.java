@@ -0,0 +1,269 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.io;
+
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static edu.upenn.sas.matthews.ms.io.MSnCacheWriter.*;
+
+/**
+ * Reads the spectra from the binary cache of an MS1/MS2 file, see MSnCacheWriter for the layout.
+ */
+class MSnCacheReader {
+
+    private final FileChannel channel;
+    private final long tableOffset;
+    private ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+
+    // the offset in the cache of the next block;
+    private long offset;
+
+    // the H lines of the MS1/MS2 file, kept in the header;
+    private final List<String> hLines = new ArrayList<>();
+
+    // loaded at the first seek;
+    private int[] scanNumberArr;
+    private long[] offsetArr;
+
+    private MSnCacheReader(FileChannel channel, long tableOffset) {
+        this.channel = channel;
+        this.tableOffset = tableOffset;
+        offset = HEADER_SIZE;
+        buf.limit(0);
+    }
+
+    /**
+     * Open the cache of an MS1/MS2 file.
+     * @param file the path of an MS1/MS2 file.
+     * @return a reader of the cache, or null if the cache is missing, incomplete or out of date.
+     * @throws IOException
+     */
+    static MSnCacheReader open(String file) throws IOException {
+        File msFile = new File(file);
+        File cacheFile = new File(file + SUFFIX);
+        if (!cacheFile.exists() || cacheFile.length() < HEADER_SIZE + TRAILER_SIZE) {
+            return null;
+        }
+
+        FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, channel.size() - TRAILER_SIZE);
+        long tableOffset = trailer.getLong();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getLong() != msFile.length() || header.getLong() != msFile.lastModified()
+                || trailer.getInt() != MAGIC || tableOffset < HEADER_SIZE || tableOffset >= channel.size()) {
+            channel.close();
+            return null;
+        }
+
+        MSnCacheReader reader = new MSnCacheReader(channel, tableOffset);
+        if (!reader.readHLines()) {
+            channel.close();
+            return null;
+        }
+
+        return reader;
+    }
+
+    /**
+     * Read the H lines after the fixed part of the header, and move to the first block.
+     * @return false if the H lines run into the scan table, i.e. the cache is corrupted.
+     */
+    private boolean readHLines() throws IOException {
+        ensure(Integer.BYTES);
+        int lineNum = buf.getInt();
+        offset += Integer.BYTES;
+        for (int i = 0; i < lineNum; i++) {
+            if (offset + Integer.BYTES > tableOffset) {
+                return false;
+            }
+            ensure(Integer.BYTES);
+            int byteNum = buf.getInt();
+            offset += Integer.BYTES;
+            if (byteNum < 0 || offset + byteNum > tableOffset) {
+                return false;
+            }
+            ensure(byteNum);
+            byte[] bytes = new byte[byteNum];
+            buf.get(bytes);
+            offset += byteNum;
+            hLines.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        return lineNum >= 0 && offset <= tableOffset;
+    }
+
+    List<String> getHLines() {
+        return hLines;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    boolean hasNext() {
+        return offset < tableOffset;
+    }
+
+    MSnSpectrum next() throws IOException {
+        return next(null);
+    }
+
+    /**
+     * Read the next spectrum.
+     * @param filter the filter checked on the block header before the peaks are read, or null to accept all.
+     * @return an MSn spectrum, or null if the spectrum is rejected by the filter.
+     * @throws IOException
+     */
+    MSnSpectrum next(ScanFilter filter) throws IOException {
+        ensure(BLOCK_HEADER_SIZE);
+        int scanNumber = buf.getInt();
+        float rt = buf.getFloat();
+        int msStage = buf.get();
+        double precMz = buf.getDouble();
+        int precZ = buf.getInt();
+        int precScanNumber = buf.getInt();
+        float tic = buf.getFloat();
+        boolean isDouble = buf.get() == 1;
+        int peakNum = buf.getInt();
+
+        offset += BLOCK_HEADER_SIZE;
+
+        int valueSize = isDouble ? Double.BYTES : Float.BYTES;
+        if (filter != null && !filter.accept(scanNumber, rt, msStage, precMz)) {
+            skip(2 * peakNum * valueSize);
+            return null;
+        }
+
+        ensure(2 * peakNum * valueSize);
+        double[] mzArr = new double[peakNum];
+        double[] intenArr = new double[peakNum];
+        if (isDouble) {
+            buf.asDoubleBuffer().get(mzArr);
+            buf.position(buf.position() + peakNum * valueSize);
+            buf.asDoubleBuffer().get(intenArr);
+            buf.position(buf.position() + peakNum * valueSize);
+        } else {
+            for (int i = 0; i < peakNum; i++) {
+                mzArr[i] = buf.getFloat();
+            }
+            for (int i = 0; i < peakNum; i++) {
+                intenArr[i] = buf.getFloat();
+            }
+        }
+        offset += 2 * peakNum * valueSize;
+
+        MSnSpectrum ret = new MSnSpectrum(mzArr, intenArr, msStage);
+        ret.setScanNumber(scanNumber);
+        ret.setRt(rt);
+        ret.setTic(tic);
+        if (msStage > 1) {
+            ret.setPrecScanNumber(precScanNumber);
+        }
+        ret.setPrecMz(precMz);
+        ret.setPrecZ(precZ);
+
+        return ret;
+    }
+
+    /**
+     * Move to a scan through the scan table of the cache.
+     * @param scanNumber the scan number.
+     * @return true if the scan is found, otherwise false and the reader is not moved.
+     * @throws IOException
+     */
+    boolean seek(int scanNumber) throws IOException {
+        if (scanNumberArr == null) {
+            loadTable();
+        }
+        for (int i = 0; i < scanNumberArr.length; i++) {
+            if (scanNumberArr[i] == scanNumber) {
+                offset = offsetArr[i];
+                buf.limit(0);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void loadTable() throws IOException {
+        ByteBuffer count = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, count, tableOffset);
+        int scanNum = count.getInt();
+        ByteBuffer table = ByteBuffer.allocate(scanNum * (Integer.BYTES + Long.BYTES));
+        readFully(channel, table, tableOffset + Integer.BYTES);
+        scanNumberArr = new int[scanNum];
+        offsetArr = new long[scanNum];
+        for (int i = 0; i < scanNum; i++) {
+            scanNumberArr[i] = table.getInt();
+            offsetArr[i] = table.getLong();
+        }
+    }
+
+    /**
+     * Make sure that the next size bytes from the current offset are in the buffer.
+     */
+    private void ensure(int size) throws IOException {
+        if (buf.remaining() >= size) {
+            return;
+        }
+        long bufStart = offset;
+        if (buf.capacity() < size) {
+            buf = ByteBuffer.allocate(size);
+        }
+        buf.clear();
+        int len = (int) Math.min(buf.capacity(), channel.size() - bufStart);
+        if (len < size) {
+            throw new IOException("Unexpected end of the cache at offset " + bufStart);
+        }
+        buf.limit(len);
+        readFully(channel, buf, bufStart);
+    }
+
+    /**
+     * Move over the next size bytes from the current offset, without reading them if they are not buffered.
+     */
+    private void skip(int size) {
+        if (buf.remaining() >= size) {
+            buf.position(buf.position() + size);
+        } else {
+            buf.limit(0);
+        }
+        offset += size;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of the cache at offset " + position);
+            }
+            position += n;
+        }
+        dst.flip();
+    }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.io;
+
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the binary cache of an MS1/MS2 file while the file is parsed. The cache is laid out as:
+ * <pre>
+ * header:  int magic, int version, long length and long modification time of the MS1/MS2 file,
+ *          int hLineNum, then per H line of the file int byteNum and its UTF-8 bytes
+ * blocks:  per spectrum, int scanNumber, float rt, byte msStage, double precMz, int precZ, int precScanNumber,
+ *          float tic, byte isDouble, int peakNum, then the m/z and the intensity values, packed in float,
+ *          or in double if isDouble is 1
+ * table:   int scanNum, then per spectrum int scanNumber and long offset of its block
+ * trailer: long offset of the table, int magic
+ * </pre>
+ * The cache is written to a temporary file, which is renamed only after the last spectrum, so an existing
+ * cache is always complete.
+ */
+class MSnCacheWriter {
+
+    static final String SUFFIX = ".msc";
+    static final int MAGIC = 0x4d534e43;
+    static final int VERSION = 2;
+    // the fixed part of the header, before the H lines;
+    static final int HEADER_SIZE = 24;
+    static final int BLOCK_HEADER_SIZE = 34;
+    static final int TRAILER_SIZE = 12;
+
+    private final File cacheFile;
+    private final File tmpFile;
+    private final FileChannel channel;
+    private ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+    private long offset;
+
+    private int scanNum = 0;
+    private int[] scanNumberArr = new int[1024];
+    private long[] offsetArr = new long[1024];
+
+    /**
+     * Start the cache of an MS1/MS2 file.
+     * @param file the path of an MS1/MS2 file.
+     * @param hLines the H lines of the file, kept in the header of the cache.
+     * @throws IOException
+     */
+    MSnCacheWriter(String file, List<String> hLines) throws IOException {
+        File msFile = new File(file);
+        cacheFile = new File(file + SUFFIX);
+        tmpFile = new File(file + SUFFIX + ".tmp");
+        channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putLong(msFile.length());
+        buf.putLong(msFile.lastModified());
+        offset = HEADER_SIZE;
+
+        ensure(Integer.BYTES);
+        buf.putInt(hLines.size());
+        offset += Integer.BYTES;
+        for (String line : hLines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            ensure(Integer.BYTES + bytes.length);
+            buf.putInt(bytes.length);
+            buf.put(bytes);
+            offset += Integer.BYTES + bytes.length;
+        }
+    }
+
+    void write(MSnSpectrum spec) throws IOException {
+        int peakNum = spec.getNumPeaks();
+        double[] mzArr = spec.getMzArr();
+        double[] intenArr = spec.getIntenArr();
+
+        // values parsed from text are floats, so float blocks are lossless in practice;
+        boolean isDouble = !isFloatExact(mzArr, peakNum) || !isFloatExact(intenArr, peakNum);
+        int blockSize = BLOCK_HEADER_SIZE + 2 * peakNum * (isDouble ? Double.BYTES : Float.BYTES);
+        ensure(blockSize);
+
+        if (scanNum == scanNumberArr.length) {
+            scanNumberArr = Arrays.copyOf(scanNumberArr, scanNum * 2);
+            offsetArr = Arrays.copyOf(offsetArr, scanNum * 2);
+        }
+        scanNumberArr[scanNum] = spec.getScanNumber();
+        offsetArr[scanNum] = offset;
+        scanNum++;
+
+        buf.putInt(spec.getScanNumber());
+        buf.putFloat(spec.getRt());
+        buf.put((byte) spec.getMsStage());
+        buf.putDouble(spec.getPrecMz());
+        buf.putInt(spec.getPrecZ());
+        buf.putInt(spec.getPrecScanNumber());
+        buf.putFloat((float) spec.getTic());
+        buf.put((byte) (isDouble ? 1 : 0));
+        buf.putInt(peakNum);
+        if (isDouble) {
+            for (int i = 0; i < peakNum; i++) {
+                buf.putDouble(mzArr[i]);
+            }
+            for (int i = 0; i < peakNum; i++) {
+                buf.putDouble(intenArr[i]);
+            }
+        } else {
+            for (int i = 0; i < peakNum; i++) {
+                buf.putFloat((float) mzArr[i]);
+            }
+            for (int i = 0; i < peakNum; i++) {
+                buf.putFloat((float) intenArr[i]);
+            }
+        }
+        offset += blockSize;
+    }
+
+    /**
+     * Write the scan table and the trailer, and move the cache into place.
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        long tableOffset = offset;
+        ensure(Integer.BYTES);
+        buf.putInt(scanNum);
+        for (int i = 0; i < scanNum; i++) {
+            ensure(Integer.BYTES + Long.BYTES);
+            buf.putInt(scanNumberArr[i]);
+            buf.putLong(offsetArr[i]);
+        }
+        ensure(TRAILER_SIZE);
+        buf.putLong(tableOffset);
+        buf.putInt(MAGIC);
+        flush();
+        channel.close();
+
+        Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Drop the incomplete cache, e.g. when the file is not read through to the end.
+     */
+    void abort() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the temporary file is deleted anyway;
+        }
+        tmpFile.delete();
+    }
+
+    private void ensure(int size) throws IOException {
+        if (buf.remaining() >= size) {
+            return;
+        }
+        flush();
+        if (buf.capacity() < size) {
+            buf = ByteBuffer.allocate(size);
+        }
+    }
+
+    private void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    private static boolean isFloatExact(double[] arr, int num) {
+        for (int i = 0; i < num; i++) {
+            if ((float) arr[i] != arr[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.io;
+
+import edu.upenn.sas.matthews.ms.basics.Constants;
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * An index of the spectra in an MS1/MS2 file, which records the byte offset, scan number, retention time,
+ * MS stage, precursor m/z and precursor charge of each S record. The index is kept in a sidecar file next
+ * to the MS1/MS2 file, and rebuilt when the size or the modification time of the MS1/MS2 file changes.
+ */
+public class MSnFileIndex {
+
+    public static final String SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x4d534e49;
+    private static final int VERSION = 2;
+
+    private int scanNum;
+    private long[] offsetArr;
+    private int[] scanNumArr;
+    private float[] rtArr;
+    private byte[] msStageArr;
+    private float[] precMzArr;
+    private byte[] precZArr;
+    private boolean isSorted;
+
+    // the positions of the MSn spectra sorted by their precursor MH, built at the first lookup;
+    private int[] precMHOrder;
+    private double[] sortedPrecMHArr;
+
+    private MSnFileIndex(int capacity) {
+        offsetArr = new long[capacity];
+        scanNumArr = new int[capacity];
+        rtArr = new float[capacity];
+        msStageArr = new byte[capacity];
+        precMzArr = new float[capacity];
+        precZArr = new byte[capacity];
+    }
+
+    /**
+     * Load the index of an MS1/MS2 file from its sidecar file; the index is built and saved if the
+     * sidecar file is missing or out of date.
+     * @param file the path of an MS1/MS2 file.
+     * @return the index of the file.
+     * @throws IOException
+     */
+    public static MSnFileIndex load(String file) throws IOException {
+        File msFile = new File(file);
+        File idxFile = new File(file + SUFFIX);
+        if (idxFile.exists()) {
+            MSnFileIndex index = read(idxFile, msFile.length(), msFile.lastModified());
+            if (index != null) {
+                return index;
+            }
+        }
+
+        MSnFileIndex index = build(file);
+        try {
+            index.write(idxFile, msFile.length(), msFile.lastModified());
+        } catch (IOException e) {
+            System.err.println("Failed in writing the index file " + idxFile + ": " + e.getMessage());
+        }
+
+        return index;
+    }
+
+    /**
+     * Build the index by scanning the headers of all spectra in an MS1/MS2 file.
+     * @param file the path of an MS1/MS2 file.
+     * @return the index of the file.
+     * @throws IOException
+     */
+    public static MSnFileIndex build(String file) throws IOException {
+        MSnFileIndex index = new MSnFileIndex(1024);
+        MappedMSnParser parser = new MappedMSnParser(file);
+        while (parser.hasNext()) {
+            long offset = parser.getScanOffset();
+            MSnSpectrum spec = parser.next(false);
+            index.add(offset, spec.getScanNumber(), spec.getRt(), spec.getMsStage(), (float) spec.getPrecMz(),
+                    spec.getPrecZ());
+        }
+        parser.close();
+        index.checkSorted();
+
+        return index;
+    }
+
+    private static MSnFileIndex read(File idxFile, long fileLength, long lastModified) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(idxFile)));
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION
+                    || dis.readLong() != fileLength || dis.readLong() != lastModified) {
+                return null;
+            }
+            int num = dis.readInt();
+            MSnFileIndex index = new MSnFileIndex(Math.max(num, 1));
+            for (int i = 0; i < num; i++) {
+                index.add(dis.readLong(), dis.readInt(), dis.readFloat(), dis.readByte(), dis.readFloat(),
+                        dis.readByte());
+            }
+            index.checkSorted();
+            return index;
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            dis.close();
+        }
+    }
+
+    private void write(File idxFile, long fileLength, long lastModified) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idxFile)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(fileLength);
+            dos.writeLong(lastModified);
+            dos.writeInt(scanNum);
+            for (int i = 0; i < scanNum; i++) {
+                dos.writeLong(offsetArr[i]);
+                dos.writeInt(scanNumArr[i]);
+                dos.writeFloat(rtArr[i]);
+                dos.writeByte(msStageArr[i]);
+                dos.writeFloat(precMzArr[i]);
+                dos.writeByte(precZArr[i]);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    private void add(long offset, int scanNumber, float rt, int msStage, float precMz, int precZ) {
+        if (scanNum == offsetArr.length) {
+            int capacity = scanNum * 2;
+            offsetArr = Arrays.copyOf(offsetArr, capacity);
+            scanNumArr = Arrays.copyOf(scanNumArr, capacity);
+            rtArr = Arrays.copyOf(rtArr, capacity);
+            msStageArr = Arrays.copyOf(msStageArr, capacity);
+            precMzArr = Arrays.copyOf(precMzArr, capacity);
+            precZArr = Arrays.copyOf(precZArr, capacity);
+        }
+        offsetArr[scanNum] = offset;
+        scanNumArr[scanNum] = scanNumber;
+        rtArr[scanNum] = rt;
+        msStageArr[scanNum] = (byte) msStage;
+        precMzArr[scanNum] = precMz;
+        precZArr[scanNum] = (byte) precZ;
+        scanNum++;
+    }
+
+    private void checkSorted() {
+        isSorted = true;
+        for (int i = 1; i < scanNum; i++) {
+            if (scanNumArr[i] <= scanNumArr[i - 1]) {
+                isSorted = false;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Look for the position of a scan in the index.
+     * @param scanNumber the scan number.
+     * @return the position of the scan in the file order, or -1 if the scan is not in the file.
+     */
+    public int indexOf(int scanNumber) {
+        if (isSorted) {
+            int pos = Arrays.binarySearch(scanNumArr, 0, scanNum, scanNumber);
+            return pos < 0 ? -1 : pos;
+        }
+
+        for (int i = 0; i < scanNum; i++) {
+            if (scanNumArr[i] == scanNumber) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of spectra in the file.
+     * @return the number of spectra in the file.
+     */
+    public int size() {
+        return scanNum;
+    }
+
+    /**
+     * Get the byte offset of the S line of a spectrum.
+     * @param i the position of the spectrum in the file order.
+     * @return the byte offset of the S line.
+     */
+    public long getOffset(int i) {
+        return offsetArr[i];
+    }
+
+    /**
+     * Get the scan number of a spectrum.
+     * @param i the position of the spectrum in the file order.
+     * @return the scan number.
+     */
+    public int getScanNumber(int i) {
+        return scanNumArr[i];
+    }
+
+    /**
+     * Get the retention time of a spectrum.
+     * @param i the position of the spectrum in the file order.
+     * @return the retention time.
+     */
+    public float getRt(int i) {
+        return rtArr[i];
+    }
+
+    /**
+     * Get the MS stage of a spectrum.
+     * @param i the position of the spectrum in the file order.
+     * @return the MS stage.
+     */
+    public int getMsStage(int i) {
+        return msStageArr[i];
+    }
+
+    /**
+     * Get the precursor m/z value of a spectrum.
+     * @param i the position of the spectrum in the file order.
+     * @return the precursor m/z value, 0 for an MS1 spectrum.
+     */
+    public float getPrecMz(int i) {
+        return precMzArr[i];
+    }
+
+    /**
+     * Get the precursor charge of a spectrum.
+     * @param i the position of the spectrum in the file order.
+     * @return the precursor charge, 0 for an MS1 spectrum.
+     */
+    public int getPrecZ(int i) {
+        return precZArr[i];
+    }
+
+    /**
+     * Look for the MSn spectra whose precursor MH, i.e. (precursor m/z - proton) * charge + proton, is within
+     * a range. The MSn spectra are sorted by their precursor MH at the first call, so that a lookup is a binary
+     * search instead of a pass over the file.
+     * @param minMH the lowest precursor MH, inclusive.
+     * @param maxMH the highest precursor MH, inclusive.
+     * @return the positions of the spectra in the file order.
+     */
+    public int[] findByPrecMH(double minMH, double maxMH) {
+        if (precMHOrder == null) {
+            sortByPrecMH();
+        }
+
+        // the first MH >= minMH;
+        int lo = 0;
+        int hi = sortedPrecMHArr.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedPrecMHArr[mid] < minMH) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = lo;
+        while (end < sortedPrecMHArr.length && sortedPrecMHArr[end] <= maxMH) {
+            end++;
+        }
+
+        int[] ret = Arrays.copyOfRange(precMHOrder, lo, end);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private void sortByPrecMH() {
+        int num = 0;
+        for (int i = 0; i < scanNum; i++) {
+            if (msStageArr[i] > 1) {
+                num++;
+            }
+        }
+
+        // the same MH as the one computed from a parsed spectrum;
+        Integer[] order = new Integer[num];
+        double[] mhArr = new double[scanNum];
+        int k = 0;
+        for (int i = 0; i < scanNum; i++) {
+            if (msStageArr[i] > 1) {
+                mhArr[i] = ((double) precMzArr[i] - Constants.PROTON_MASS) * precZArr[i] + Constants.PROTON_MASS;
+                order[k++] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(mhArr[a], mhArr[b]));
+
+        precMHOrder = new int[num];
+        sortedPrecMHArr = new double[num];
+        for (int i = 0; i < num; i++) {
+            precMHOrder[i] = order[i];
+            sortedPrecMHArr[i] = mhArr[order[i]];
+        }
+    }
+
+}
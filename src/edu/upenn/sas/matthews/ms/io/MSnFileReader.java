@@ -14,12 +14,16 @@
  */
 package edu.upenn.sas.matthews.ms.io;
 
+import edu.upenn.sas.matthews.ms.basics.spec.HeapPeakStore;
 import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
-import edu.upenn.sas.matthews.ms.basics.spec.Peak;
+import edu.upenn.sas.matthews.ms.basics.spec.PeakStore;
+import edu.upenn.sas.matthews.ms.basics.spec.SpectrumRun;
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,17 +39,79 @@ public class MSnFileReader {
     private float curPrecMz = 0;
     private int curPrecZ = 0;
     private float curRt = 0;
-    private List<Peak> curPeakList;
+    private PeakBuffer peakBuf;
     private List<String> hLines;
     private List<String> iLines;
     private List<String> zLines;
 
     private String filename;
 
+    // non-null if the file is read through a memory-mapped parser;
+    private MappedMSnParser mappedParser;
+
+    // loaded at the first random access;
+    private MSnFileIndex index;
+
+    // non-null if the spectra are read from a valid binary cache;
+    private MSnCacheReader cacheReader;
+
+    // non-null while a binary cache is written along with the parsing;
+    private MSnCacheWriter cacheWriter;
+
+    // non-null if only the scans accepted by the filter are read;
+    private ScanFilter filter;
+
+    // the next accepted spectrum, read ahead by hasNext() when a filter is set;
+    private MSnSpectrum pending;
+
     public MSnFileReader(String file) throws IOException {
+        this(file, false);
+    }
+
+    public MSnFileReader(String file, boolean isMapped) throws IOException {
+        this(file, isMapped, false);
+    }
+
+    /**
+     * Get an instance of the reader.
+     * @param file the path of an MS1/MS2 file.
+     * @param isMapped true to memory-map the file and parse its bytes directly, which avoids creating
+     *                 a String for each line; false to read the file line by line.
+     * @param isCached true to read the spectra from the binary cache next to the file if it is up to date;
+     *                 otherwise the cache is written while the file is read through to the end.
+     * @throws IOException
+     */
+    public MSnFileReader(String file, boolean isMapped, boolean isCached) throws IOException {
         filename = file;
+        if (isCached) {
+            cacheReader = MSnCacheReader.open(file);
+            if (cacheReader != null) {
+                return;
+            }
+        }
+
+        if (isMapped) {
+            mappedParser = new MappedMSnParser(file);
+        } else {
+            open(file);
+        }
+
+        if (isCached) {
+            // the H lines are read by now, so they go into the header of the cache;
+            try {
+                cacheWriter = new MSnCacheWriter(file, getHLines());
+            } catch (IOException e) {
+                System.err.println("Failed in creating the cache of " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Open the file for reading line by line, and read its header up to the first S line.
+     */
+    private void open(String file) throws IOException {
         reader = new BufferedReader(new FileReader(file));
-        curPeakList = new ArrayList<>();
+        peakBuf = new PeakBuffer();
         zLines = new ArrayList<>();
         hLines = new ArrayList<>();
         iLines = new ArrayList<>();
@@ -70,20 +136,162 @@ public class MSnFileReader {
         }
     }
 
+    /**
+     * Get the H lines of the header of the file, e.g. the creation date and the extractor; they are kept in the
+     * binary cache too.
+     * @return the H lines, without the line breaks.
+     */
+    public List<String> getHLines() {
+        if (cacheReader != null) {
+            return cacheReader.getHLines();
+        }
+        return mappedParser != null ? mappedParser.getHLines() : hLines;
+    }
+
     /**
      * Close the file handler of the reader.
      * @throws IOException
      */
     public void close() throws IOException {
+        if (cacheWriter != null) {
+            cacheWriter.abort();
+            cacheWriter = null;
+        }
+        if (cacheReader != null) {
+            cacheReader.close();
+            return;
+        }
+        if (mappedParser != null) {
+            mappedParser.close();
+            return;
+        }
         reader.close();
     }
 
+    /**
+     * Read only the scans accepted by a filter. The filter is checked on the header lines of each scan, and
+     * the peak lines of a rejected scan are skipped without being parsed, unless the binary cache is being
+     * written, which has to hold every scan.
+     * @param filter a filter on the header values of the scans, or null to read all scans.
+     */
+    public void setFilter(ScanFilter filter) {
+        this.filter = filter;
+        pending = null;
+    }
+
+    /**
+     * Get the scan index of the file, which is loaded from its sidecar file, or built and saved at the first call.
+     * @return the scan index of the file.
+     * @throws IOException
+     */
+    public MSnFileIndex getIndex() throws IOException {
+        if (index == null) {
+            index = MSnFileIndex.load(filename);
+        }
+        return index;
+    }
+
+    /**
+     * Move the reader to a scan, so that the next call of next() returns that scan, or the first scan from
+     * there on which is accepted by the filter.
+     * @param scanNumber the scan number.
+     * @return true if the scan is found, otherwise false and the reader is not moved.
+     * @throws IOException
+     */
+    public boolean seek(int scanNumber) throws IOException {
+        pending = null;
+        if (cacheReader != null) {
+            return cacheReader.seek(scanNumber);
+        }
+
+        // the cache is written in file order only;
+        if (cacheWriter != null) {
+            cacheWriter.abort();
+            cacheWriter = null;
+        }
+
+        MSnFileIndex idx = getIndex();
+        int pos = idx.indexOf(scanNumber);
+        if (pos < 0) {
+            return false;
+        }
+
+        long offset = idx.getOffset(pos);
+        if (mappedParser != null) {
+            mappedParser.seek(offset);
+            return true;
+        }
+
+        reader.close();
+        FileInputStream fis = new FileInputStream(filename);
+        fis.getChannel().position(offset);
+        reader = new BufferedReader(new InputStreamReader(fis));
+        peakBuf.clear();
+        hasNext = false;
+        return hasNextScan();
+    }
+
+    /**
+     * Read a scan through the scan index.
+     * @param scanNumber the scan number.
+     * @return the spectrum of the scan, or null if the scan is not in the file.
+     * @throws IOException
+     */
+    public MSnSpectrum readScan(int scanNumber) throws IOException {
+        if (!seek(scanNumber)) {
+            return null;
+        }
+        return next();
+    }
+
+    /**
+     * Read all remaining spectra into a columnar run.
+     * @param isFloat true to store the m/z and intensity values in float, false in double.
+     * @return a run holding the remaining spectra of the file.
+     * @throws IOException
+     */
+    public SpectrumRun readRun(boolean isFloat) throws IOException {
+        return readRun(new HeapPeakStore(isFloat));
+    }
+
+    /**
+     * Read all remaining spectra into a columnar run, e.g. with a MappedPeakStore to keep the peaks off the heap.
+     * @param store an empty store for the peaks.
+     * @return a run holding the remaining spectra of the file.
+     * @throws IOException
+     */
+    public SpectrumRun readRun(PeakStore store) throws IOException {
+        SpectrumRun run = new SpectrumRun(store);
+        while (hasNext()) {
+            run.add(next());
+        }
+        run.trim();
+
+        return run;
+    }
+
     /**
      * Check whether hit the end of the file.
      * @return false if the end of the file is reached, otherwise true.
      * @throws IOException
      */
     public boolean hasNext() throws IOException {
+        if (filter == null) {
+            return hasNextScan();
+        }
+        while (pending == null && hasNextScan()) {
+            pending = nextScan();
+        }
+        return pending != null;
+    }
+
+    private boolean hasNextScan() throws IOException {
+        if (cacheReader != null) {
+            return cacheReader.hasNext();
+        }
+        if (mappedParser != null) {
+            return mappedParser.hasNext();
+        }
         if (hasNext) {
             return true;
         } else {
@@ -112,17 +320,65 @@ public class MSnFileReader {
      * @throws IOException
      */
     public MSnSpectrum next() throws IOException {
+        if (filter == null) {
+            return nextScan();
+        }
+        hasNext();
+        MSnSpectrum spec = pending;
+        pending = null;
+        return spec;
+    }
+
+    /**
+     * Read the next scan in the file.
+     * @return an MSn spectrum, or null if the scan is rejected by the filter.
+     * @throws IOException
+     */
+    private MSnSpectrum nextScan() throws IOException {
+        if (cacheReader != null) {
+            return cacheReader.next(filter);
+        }
+
+        if (cacheWriter == null) {
+            return (mappedParser != null) ? mappedParser.next(true, filter) : readNext(filter);
+        }
+
+        MSnSpectrum spec = (mappedParser != null) ? mappedParser.next() : readNext(null);
+        boolean isLast = !hasNextScan();
+        try {
+            cacheWriter.write(spec);
+            if (isLast) {
+                cacheWriter.finish();
+                cacheWriter = null;
+            }
+        } catch (IOException e) {
+            // e.g. a full disk; the file is still read, only without the cache;
+            System.err.println("Failed in writing the cache of " + filename + ": " + e.getMessage());
+            cacheWriter.abort();
+            cacheWriter = null;
+        }
+
+        if (filter != null && !filter.accept(spec.getScanNumber(), spec.getRt(), spec.getMsStage(),
+                spec.getPrecMz())) {
+            return null;
+        }
+        return spec;
+    }
+
+    private MSnSpectrum readNext(ScanFilter filter) throws IOException {
         hLines.clear();
         iLines.clear();
         zLines.clear();
+        boolean isChecked = filter == null;
+        boolean isAccepted = true;
+        int peakLineNum = 0;
         String line;
         while ((line = reader.readLine()) != null) {
             if (line.startsWith("S\t")) {
                 hasNext = true;
-                if (curPeakList.size() > 0) {
-                    Peak[] peakArr = curPeakList.toArray(new Peak[0]);
-                    curPeakList.clear();
-                    MSnSpectrum ret = new MSnSpectrum(peakArr, msStage);
+                if (peakLineNum > 0) {
+                    MSnSpectrum ret = isAccepted ? build() : null;
+                    peakBuf.clear();
 
                     // get the precMz and scanNum for the next spectrum;
                     String[] elems = line.split("\t");
@@ -133,14 +389,6 @@ public class MSnFileReader {
                         curPrecMz = Float.parseFloat(elems[3]);
                     }
                     curScanNum = Integer.parseInt(elems[1]);
-                    ret.setScanNumber(curScanNum);
-                    ret.setRt(curRt);
-                    ret.setTic(precInt);
-                    if (msStage > 1) {
-                        ret.setPrecScanNumber(precScanNum);
-                    }
-                    ret.setPrecMz(curPrecMz);
-                    ret.setPrecZ(curPrecZ);
 
                     return ret;
                 }
@@ -186,31 +434,85 @@ public class MSnFileReader {
                 curPrecZ = Integer.parseInt(elems[1]);
                 msStage = 2;
             } else if (line.charAt(0) < 'A' || line.charAt(0) > 'Z') {
-                String[] elems = line.split(" ");
-                if (elems.length < 2) {
+                // the header lines are all read at the first peak line;
+                if (!isChecked) {
+                    isChecked = true;
+                    isAccepted = filter.accept(curScanNum, curRt, msStage, curPrecMz);
+                }
+                peakLineNum++;
+                if (!isAccepted) {
+                    continue;
+                }
+                int sep = line.indexOf(' ');
+                if (sep < 0) {
                     System.err.println("Failed in parsing peak line: " + line);
                     System.exit(1);
                 }
-                curPeakList.add(new Peak(Float.parseFloat(elems[0]),
-                        Float.parseFloat(elems[1])));
+                int end = line.indexOf(' ', sep + 1);
+                peakBuf.add(parseFloat(line, 0, sep), parseFloat(line, sep + 1, end < 0 ? line.length() : end));
             }
         }
 
         hasNext = false;
+        if (!isChecked) {
+            isAccepted = filter.accept(curScanNum, curRt, msStage, curPrecMz);
+        }
 
         // the last spectrum;
-        Peak[] peakArr = curPeakList.toArray(new Peak[0]);
-        curPeakList.clear();
+        MSnSpectrum ret = isAccepted ? build() : null;
+        peakBuf.clear();
+
+        return ret;
+    }
+
+    /**
+     * Parse a decimal in a range of a line in place, with the same result as Float.parseFloat on the
+     * substring, which is taken only for the forms MappedMSnParser does not convert, e.g. with an exponent.
+     */
+    private static float parseFloat(String line, int start, int end) {
+        int pos = start;
+        boolean neg = false;
+        if (pos < end && (line.charAt(pos) == '-' || line.charAt(pos) == '+')) {
+            neg = line.charAt(pos) == '-';
+            pos++;
+        }
 
-        MSnSpectrum ret = new MSnSpectrum(peakArr, msStage);
+        long mantissa = 0;
+        int digitNum = 0;
+        int fracDigitNum = 0;
+        boolean isFrac = false;
+        for (; pos < end; pos++) {
+            char c = line.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                if (mantissa >= 100000000000000000L) {
+                    break;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                digitNum++;
+                if (isFrac) {
+                    fracDigitNum++;
+                }
+            } else if (c == '.' && !isFrac) {
+                isFrac = true;
+            } else {
+                break;
+            }
+        }
+
+        float ret = pos == end && digitNum > 0 ? MappedMSnParser.toFloat(mantissa, fracDigitNum, neg) : Float.NaN;
+        return Float.isNaN(ret) ? Float.parseFloat(line.substring(start, end)) : ret;
+    }
+
+    private MSnSpectrum build() {
+        MSnSpectrum ret = peakBuf.toSpectrum(msStage);
         ret.setScanNumber(curScanNum);
         ret.setRt(curRt);
         ret.setTic(precInt);
-        ret.setPrecMz(curPrecMz);
-        ret.setPrecZ(curPrecZ);
         if (msStage > 1) {
             ret.setPrecScanNumber(precScanNum);
         }
+        ret.setPrecMz(curPrecMz);
+        ret.setPrecZ(curPrecZ);
 
         return ret;
     }
@@ -0,0 +1,441 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.io;
+
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parser of MS1/MS2 files which scans the bytes of a memory-mapped file directly. Numbers are parsed in
+ * place, so no String is created for the scan header and peak lines; only the H lines of the file header
+ * are kept as strings.
+ */
+class MappedMSnParser {
+
+    // the size of a mapped window, a larger file is mapped window by window;
+    private static final long WINDOW_SIZE = 1L << 28;
+
+    // a line shorter than this never crosses the end of a mapped window;
+    private static final int MAX_LINE_LENGTH = 1 << 16;
+
+    private static final byte[] RET_TIME = "RetTime".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PRECURSOR_SCAN = "PrecursorScan".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PRECURSOR_INT = "PrecursorInt".getBytes(StandardCharsets.US_ASCII);
+
+    private static final float[] FLOAT_POW10 = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    private static final double[] DOUBLE_POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer buf;
+    private long windowStart;
+    private int pos;
+
+    private boolean hasNext = false;
+    private long scanOffset = -1;
+    private int curScanNum = 0;
+    private int precScanNum = 0;
+    private float precInt = 0;
+    private int msStage = 1;
+    private float curPrecMz = 0;
+    private int curPrecZ = 0;
+    private float curRt = 0;
+
+    private final PeakBuffer peakBuf = new PeakBuffer();
+    private final List<String> hLines = new ArrayList<>();
+
+    MappedMSnParser(String file) throws IOException {
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        fileSize = channel.size();
+        map(0);
+
+        // keep the H lines, and skip the other header lines;
+        while (!isEof()) {
+            ensureLine();
+            if (isRecord('S')) {
+                parseSLine();
+                hasNext = true;
+                break;
+            }
+            if (isRecord('H')) {
+                hLines.add(lineString());
+            }
+            skipLine();
+        }
+    }
+
+    /**
+     * Get the H lines of the header of the file.
+     * @return the H lines, without the line breaks.
+     */
+    List<String> getHLines() {
+        return hLines;
+    }
+
+    void close() throws IOException {
+        buf = null;
+        channel.close();
+    }
+
+    boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * Get the byte offset of the S line of the spectrum returned by the next call of next().
+     * @return the byte offset in the file, or -1 if no spectrum is left.
+     */
+    long getScanOffset() {
+        return hasNext ? scanOffset : -1;
+    }
+
+    /**
+     * Move to the S line at the given byte offset, so that the next call of next() returns that spectrum.
+     * @param offset the byte offset of an S line in the file.
+     * @throws IOException if there is no S line at the offset.
+     */
+    void seek(long offset) throws IOException {
+        if (offset < 0 || offset >= fileSize) {
+            throw new IOException("Offset " + offset + " is out of the file");
+        }
+        map(offset);
+        if (!isRecord('S')) {
+            throw new IOException("No S line found at offset " + offset);
+        }
+        parseSLine();
+        hasNext = true;
+    }
+
+    MSnSpectrum next() throws IOException {
+        return next(true);
+    }
+
+    MSnSpectrum next(boolean withPeaks) throws IOException {
+        return next(withPeaks, null);
+    }
+
+    /**
+     * Read the next spectrum.
+     * @param withPeaks false to skip the peak lines, the returned spectrum then holds the header values only.
+     * @param filter the filter checked on the header values before the first peak line, or null to accept all.
+     * @return an MSn spectrum, or null if the spectrum is rejected by the filter.
+     * @throws IOException
+     */
+    MSnSpectrum next(boolean withPeaks, ScanFilter filter) throws IOException {
+        peakBuf.clear();
+        boolean isChecked = filter == null;
+        boolean isAccepted = true;
+        while (!isEof()) {
+            ensureLine();
+            byte c = buf.get(pos);
+            if (isRecord('S')) {
+                if (!isChecked) {
+                    isAccepted = filter.accept(curScanNum, curRt, msStage, curPrecMz);
+                }
+                MSnSpectrum ret = isAccepted ? build() : null;
+
+                // get the precMz and scanNum for the next spectrum;
+                parseSLine();
+                return ret;
+            } else if (isRecord('I')) {
+                parseILine();
+            } else if (isRecord('Z')) {
+                pos += 2;
+                curPrecZ = parseInt();
+                msStage = 2;
+            } else if ((c < 'A' || c > 'Z') && c != '\n' && c != '\r') {
+                // the header lines are all read at the first peak line;
+                if (!isChecked) {
+                    isChecked = true;
+                    isAccepted = filter.accept(curScanNum, curRt, msStage, curPrecMz);
+                }
+                if (withPeaks && isAccepted) {
+                    parsePeakLine();
+                }
+            }
+            skipLine();
+        }
+
+        hasNext = false;
+        if (!isChecked) {
+            isAccepted = filter.accept(curScanNum, curRt, msStage, curPrecMz);
+        }
+
+        // the last spectrum;
+        return isAccepted ? build() : null;
+    }
+
+    private MSnSpectrum build() {
+        MSnSpectrum ret = peakBuf.toSpectrum(msStage);
+        ret.setScanNumber(curScanNum);
+        ret.setRt(curRt);
+        ret.setTic(precInt);
+        if (msStage > 1) {
+            ret.setPrecScanNumber(precScanNum);
+        }
+        ret.setPrecMz(curPrecMz);
+        ret.setPrecZ(curPrecZ);
+
+        return ret;
+    }
+
+    private void parseSLine() {
+        scanOffset = windowStart + pos;
+        pos += 2;
+        curScanNum = parseInt();
+        skipField();
+        int fieldNum = 2;
+        while (pos < buf.limit() && buf.get(pos) == '\t') {
+            pos++;
+            fieldNum++;
+            if (fieldNum == 4) {
+                curPrecMz = parseFloat();
+            }
+            skipField();
+        }
+
+        if (fieldNum == 3) {
+            msStage = 1;
+        } else if (fieldNum > 3) {
+            msStage = 2;
+        }
+        skipLine();
+    }
+
+    private void parseILine() {
+        pos += 2;
+        if (matchField(RET_TIME)) {
+            curRt = parseFloat();
+        } else if (matchField(PRECURSOR_SCAN)) {
+            precScanNum = parseInt();
+        } else if (matchField(PRECURSOR_INT)) {
+            precInt = parseFloat();
+        }
+    }
+
+    private void parsePeakLine() {
+        double mz = parseFloat();
+        while (pos < buf.limit() && buf.get(pos) == ' ') {
+            pos++;
+        }
+        if (pos >= buf.limit() || buf.get(pos) == '\n' || buf.get(pos) == '\r') {
+            System.err.println("Failed in parsing peak line at scan " + curScanNum);
+            System.exit(1);
+        }
+        double h = parseFloat();
+        peakBuf.add(mz, h);
+    }
+
+    /**
+     * Check whether the current field equals the given key; if so, move to the next field.
+     * @param key the bytes of the key.
+     * @return true if the current field equals the key, otherwise false.
+     */
+    private boolean matchField(byte[] key) {
+        int len = key.length;
+        if (pos + len >= buf.limit() || buf.get(pos + len) != '\t') {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (buf.get(pos + i) != key[i]) {
+                return false;
+            }
+        }
+        pos += len + 1;
+        return true;
+    }
+
+    private int parseInt() {
+        int limit = buf.limit();
+        boolean neg = false;
+        if (pos < limit && buf.get(pos) == '-') {
+            neg = true;
+            pos++;
+        }
+        int ret = 0;
+        byte b;
+        while (pos < limit && (b = buf.get(pos)) >= '0' && b <= '9') {
+            ret = ret * 10 + (b - '0');
+            pos++;
+        }
+
+        return neg ? -ret : ret;
+    }
+
+    /**
+     * Parse a decimal number at the current position, with the same result as Float.parseFloat.
+     * Plain decimals are converted from their digits with one correctly rounded division; other forms, e.g.
+     * with an exponent, and the rare quotients halfway between two floats fall back to Float.parseFloat.
+     * @return the parsed value.
+     */
+    private float parseFloat() {
+        int limit = buf.limit();
+        int start = pos;
+        boolean neg = false;
+        if (pos < limit && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+            neg = buf.get(pos) == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int digitNum = 0;
+        int fracDigitNum = 0;
+        boolean isFrac = false;
+        boolean isPlain = true;
+        while (pos < limit) {
+            byte b = buf.get(pos);
+            if (b >= '0' && b <= '9') {
+                if (mantissa >= 100000000000000000L) {
+                    isPlain = false;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digitNum++;
+                if (isFrac) {
+                    fracDigitNum++;
+                }
+            } else if (b == '.' && !isFrac) {
+                isFrac = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+
+        if (pos < limit && !isDelimiter(buf.get(pos))) {
+            isPlain = false;
+        }
+
+        float ret = isPlain && digitNum > 0 ? toFloat(mantissa, fracDigitNum, neg) : Float.NaN;
+        return Float.isNaN(ret) ? parseToken(start) : ret;
+    }
+
+    /**
+     * Convert the digits of a plain decimal, i.e. mantissa / 10^fracDigitNum, to the correctly rounded float,
+     * the same as Float.parseFloat gives.
+     * @return the float, or NaN if it is not converted here, and is to be parsed by Float.parseFloat instead.
+     */
+    static float toFloat(long mantissa, int fracDigitNum, boolean neg) {
+        if (mantissa <= (1L << 24) && fracDigitNum < FLOAT_POW10.length) {
+            // both operands are exact floats, so the quotient is correctly rounded;
+            float ret = (float) mantissa / FLOAT_POW10[fracDigitNum];
+            return neg ? -ret : ret;
+        }
+        if (mantissa <= (1L << 53) && fracDigitNum < DOUBLE_POW10.length) {
+            // the double quotient is correctly rounded, and rounding it again to a float gives the correctly
+            // rounded float unless it falls exactly halfway between two floats;
+            double q = (double) mantissa / DOUBLE_POW10[fracDigitNum];
+            if (!isFloatMidpoint(q)) {
+                return neg ? -(float) q : (float) q;
+            }
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Check whether a double may be halfway between two floats, where rounding it to a float can differ from
+     * rounding the exact decimal. The subnormal floats are not checked, and always reported.
+     */
+    private static boolean isFloatMidpoint(double d) {
+        // a normal float keeps the upper 23 of the 52 fraction bits, its midpoints have only the next one set;
+        return d < Float.MIN_NORMAL || (Double.doubleToRawLongBits(d) & 0x1FFFFFFFL) == 0x10000000L;
+    }
+
+    private float parseToken(int start) {
+        pos = start;
+        while (pos < buf.limit() && !isDelimiter(buf.get(pos))) {
+            pos++;
+        }
+        byte[] token = new byte[pos - start];
+        for (int i = 0; i < token.length; i++) {
+            token[i] = buf.get(start + i);
+        }
+
+        return Float.parseFloat(new String(token, StandardCharsets.US_ASCII));
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private boolean isRecord(char tag) {
+        return buf.get(pos) == tag && pos + 1 < buf.limit() && buf.get(pos + 1) == '\t';
+    }
+
+    private void skipField() {
+        byte b;
+        while (pos < buf.limit() && (b = buf.get(pos)) != '\t' && b != '\n' && b != '\r') {
+            pos++;
+        }
+    }
+
+    private void skipLine() {
+        int limit = buf.limit();
+        while (pos < limit && buf.get(pos) != '\n') {
+            pos++;
+        }
+        if (pos < limit) {
+            pos++;
+        }
+    }
+
+    /**
+     * Get the line at the current position as a string, without moving.
+     */
+    private String lineString() {
+        int end = pos;
+        while (end < buf.limit() && buf.get(end) != '\n' && buf.get(end) != '\r') {
+            end++;
+        }
+        byte[] bytes = new byte[end - pos];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(pos + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean isEof() {
+        return windowStart + pos >= fileSize;
+    }
+
+    /**
+     * Make sure that the line at the current position is fully inside the mapped window.
+     * @throws IOException
+     */
+    private void ensureLine() throws IOException {
+        if (buf.limit() - pos < MAX_LINE_LENGTH && windowStart + buf.limit() < fileSize) {
+            map(windowStart + pos);
+        }
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+        pos = 0;
+    }
+
+}
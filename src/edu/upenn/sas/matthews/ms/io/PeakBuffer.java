@@ -0,0 +1,58 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.io;
+
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+
+import java.util.Arrays;
+
+/**
+ * A growable scratch buffer of the peaks of the spectrum being parsed. A reader keeps one buffer and reuses
+ * it for all spectra, so the only per-spectrum allocation is the pair of arrays handed to the spectrum.
+ */
+class PeakBuffer {
+
+    private double[] mzArr = new double[1024];
+    private double[] intenArr = new double[1024];
+    private int size = 0;
+
+    void clear() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(double mz, double h) {
+        if (size == mzArr.length) {
+            mzArr = Arrays.copyOf(mzArr, size * 2);
+            intenArr = Arrays.copyOf(intenArr, size * 2);
+        }
+        mzArr[size] = mz;
+        intenArr[size] = h;
+        size++;
+    }
+
+    /**
+     * Get a spectrum holding a copy of the buffered peaks.
+     * @param msStage the stage of the spectrum.
+     * @return an MSn spectrum.
+     */
+    MSnSpectrum toSpectrum(int msStage) {
+        return new MSnSpectrum(Arrays.copyOf(mzArr, size), Arrays.copyOf(intenArr, size), msStage);
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.io;
+
+/**
+ * A filter on the header values of a scan: scan number, retention time, MS stage and precursor m/z.
+ * MSnFileReader checks the filter once the S, I and Z lines of a scan are read, and the peak lines of
+ * a rejected scan are skipped without being parsed. A new filter accepts every scan.
+ */
+public class ScanFilter {
+
+    // 0 for any stage;
+    private int msStage = 0;
+    private int minScanNumber = Integer.MIN_VALUE;
+    private int maxScanNumber = Integer.MAX_VALUE;
+    private double minRt = Double.NEGATIVE_INFINITY;
+    private double maxRt = Double.POSITIVE_INFINITY;
+    private double minPrecMz = Double.NEGATIVE_INFINITY;
+    private double maxPrecMz = Double.POSITIVE_INFINITY;
+
+    /**
+     * Accept only the scans of one MS stage.
+     * @param msStage the MS stage, e.g. 1 for MS1 scans and 2 for MS2 scans, or 0 for any stage.
+     */
+    public void setMsStage(int msStage) {
+        this.msStage = msStage;
+    }
+
+    /**
+     * Accept only the scans within a range of scan numbers.
+     * @param minScanNumber the lowest scan number, inclusive.
+     * @param maxScanNumber the highest scan number, inclusive.
+     */
+    public void setScanNumberRange(int minScanNumber, int maxScanNumber) {
+        this.minScanNumber = minScanNumber;
+        this.maxScanNumber = maxScanNumber;
+    }
+
+    /**
+     * Accept only the scans within a retention time window.
+     * @param minRt the lowest retention time in minutes, inclusive.
+     * @param maxRt the highest retention time in minutes, inclusive.
+     */
+    public void setRtRange(double minRt, double maxRt) {
+        this.minRt = minRt;
+        this.maxRt = maxRt;
+    }
+
+    /**
+     * Accept only the MSn scans whose precursor m/z is within a range; MS1 scans are not affected.
+     * @param minPrecMz the lowest precursor m/z, inclusive.
+     * @param maxPrecMz the highest precursor m/z, inclusive.
+     */
+    public void setPrecMzRange(double minPrecMz, double maxPrecMz) {
+        this.minPrecMz = minPrecMz;
+        this.maxPrecMz = maxPrecMz;
+    }
+
+    /**
+     * Check the header values of a scan.
+     * @param scanNumber the scan number.
+     * @param rt the retention time.
+     * @param msStage the MS stage.
+     * @param precMz the precursor m/z, ignored for MS1 scans.
+     * @return true if the scan passes the filter, otherwise false.
+     */
+    public boolean accept(int scanNumber, double rt, int msStage, double precMz) {
+        if (this.msStage != 0 && this.msStage != msStage) {
+            return false;
+        }
+        if (scanNumber < minScanNumber || scanNumber > maxScanNumber) {
+            return false;
+        }
+        if (rt < minRt || rt > maxRt) {
+            return false;
+        }
+        if (msStage > 1 && (precMz < minPrecMz || precMz > maxPrecMz)) {
+            return false;
+        }
+
+        return true;
+    }
+
+}
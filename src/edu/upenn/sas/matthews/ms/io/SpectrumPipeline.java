@@ -0,0 +1,218 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.io;
+
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.*;
+
+/**
+ * A pipeline which overlaps the parsing and the scoring of the spectra in one file: a parser thread reads
+ * batches of spectra from the reader, a pool of workers scores the batches, and the calling thread receives
+ * the results in the order of the scan numbers. The results are put in that order through a buffer of the
+ * last REORDER_WINDOW results, so the spectra of a file out of order within the window are still received
+ * sorted; a spectrum further out of order is received as soon as it is the lowest in the buffer, i.e. near
+ * its position in the file. The number of batches in flight is bounded, so the parser waits when the workers
+ * or the receiver fall behind. With a single worker, the spectra are scored on the calling thread instead,
+ * and received in the same order.
+ */
+public class SpectrumPipeline {
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    // the number of results held back to be put in the order of the scan numbers;
+    public static final int REORDER_WINDOW = 256;
+
+    // marks the end of the batches;
+    private static final Future<?> END = CompletableFuture.completedFuture(null);
+
+    public interface Scorer<T> {
+
+        /**
+         * Score a spectrum.
+         * @param spec an MSn spectrum.
+         * @return the result of the spectrum, or null if there is nothing to report.
+         * @throws IOException
+         */
+        T score(MSnSpectrum spec) throws IOException;
+    }
+
+    public interface Receiver<T> {
+
+        /**
+         * Receive the result of a spectrum, in the order of the scan numbers.
+         * @param result the non-null result of a spectrum.
+         * @throws IOException
+         */
+        void receive(T result) throws IOException;
+    }
+
+    /**
+     * Run the pipeline with the default batch size, and at most two batches in flight per worker.
+     * @see #run(MSnFileReader, int, int, int, Scorer, Receiver)
+     */
+    public static <T> void run(MSnFileReader reader, int workerNum, Scorer<T> scorer, Receiver<T> receiver)
+            throws IOException {
+        run(reader, workerNum, DEFAULT_BATCH_SIZE, 2 * workerNum, scorer, receiver);
+    }
+
+    /**
+     * Read all remaining spectra of a reader, score them concurrently, and pass the results in scan order
+     * to the receiver.
+     * @param reader the reader of an MS1/MS2 file.
+     * @param workerNum the number of scoring workers; with one, the spectra are scored on the calling thread.
+     * @param batchSize the number of spectra in a batch.
+     * @param maxBatchesInFlight the maximum number of batches that are read but not yet received.
+     * @param scorer the scorer, called from the worker threads.
+     * @param receiver the receiver, called from the calling thread.
+     * @throws IOException if the reading or the scoring fails.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> void run(MSnFileReader reader, int workerNum, int batchSize, int maxBatchesInFlight,
+                               Scorer<T> scorer, Receiver<T> receiver) throws IOException {
+        ScanOrderBuffer<T> buffer = new ScanOrderBuffer<>(receiver);
+        if (workerNum <= 1) {
+            long seq = 0;
+            while (reader.hasNext()) {
+                MSnSpectrum spec = reader.next();
+                T result = scorer.score(spec);
+                if (result != null) {
+                    buffer.add(new Result<>(spec.getScanNumber(), seq, result));
+                }
+                seq++;
+            }
+            buffer.flush();
+            return;
+        }
+
+        BlockingQueue<Future<List<Result<T>>>> batches = new ArrayBlockingQueue<>(Math.max(1, maxBatchesInFlight));
+        ExecutorService workers = Executors.newFixedThreadPool(workerNum);
+        Thread parser = new Thread(() -> {
+            Future<List<Result<T>>> last = (Future<List<Result<T>>>) END;
+            try {
+                long seq = 0;
+                while (reader.hasNext()) {
+                    List<MSnSpectrum> batch = new ArrayList<>(batchSize);
+                    while (batch.size() < batchSize && reader.hasNext()) {
+                        batch.add(reader.next());
+                    }
+                    long firstSeq = seq;
+                    seq += batch.size();
+                    batches.put(workers.submit(() -> score(batch, firstSeq, scorer)));
+                }
+            } catch (IOException | RuntimeException e) {
+                CompletableFuture<List<Result<T>>> failure = new CompletableFuture<>();
+                failure.completeExceptionally(e);
+                last = failure;
+            } catch (InterruptedException e) {
+                // the receiver has stopped;
+                return;
+            }
+
+            try {
+                batches.put(last);
+            } catch (InterruptedException e) {
+                // the receiver has stopped;
+            }
+        }, "spectrum-parser");
+        parser.setDaemon(true);
+        parser.start();
+
+        try {
+            Future<List<Result<T>>> future;
+            while ((future = batches.take()) != END) {
+                for (Result<T> result : future.get()) {
+                    buffer.add(result);
+                }
+            }
+            buffer.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the scored spectra", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed in scoring the spectra", e.getCause());
+        } finally {
+            parser.interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    private static <T> List<Result<T>> score(List<MSnSpectrum> batch, long firstSeq, Scorer<T> scorer)
+            throws IOException {
+        List<Result<T>> ret = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            MSnSpectrum spec = batch.get(i);
+            T result = scorer.score(spec);
+            if (result != null) {
+                ret.add(new Result<>(spec.getScanNumber(), firstSeq + i, result));
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * The result of a spectrum, with its scan number and its position in the file.
+     */
+    private static class Result<T> {
+
+        final int scanNumber;
+        final long seq;
+        final T value;
+
+        Result(int scanNumber, long seq, T value) {
+            this.scanNumber = scanNumber;
+            this.seq = seq;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Holds back the last REORDER_WINDOW results, and passes on the one of the lowest scan number once the
+     * buffer is full; the spectra of equal scan numbers keep the order of the file.
+     */
+    private static class ScanOrderBuffer<T> {
+
+        private final PriorityQueue<Result<T>> queue = new PriorityQueue<>(REORDER_WINDOW + 1,
+                (a, b) -> a.scanNumber != b.scanNumber ? Integer.compare(a.scanNumber, b.scanNumber)
+                        : Long.compare(a.seq, b.seq));
+        private final Receiver<T> receiver;
+
+        ScanOrderBuffer(Receiver<T> receiver) {
+            this.receiver = receiver;
+        }
+
+        void add(Result<T> result) throws IOException {
+            queue.add(result);
+            if (queue.size() > REORDER_WINDOW) {
+                receiver.receive(queue.poll().value);
+            }
+        }
+
+        void flush() throws IOException {
+            while (!queue.isEmpty()) {
+                receiver.receive(queue.poll().value);
+            }
+        }
+    }
+
+}
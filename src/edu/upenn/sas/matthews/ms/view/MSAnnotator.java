@@ -16,6 +16,7 @@ package edu.upenn.sas.matthews.ms.view;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
+import java.awt.font.FontRenderContext;
 import java.awt.font.TextAttribute;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
@@ -30,8 +31,15 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+/**
+ * Draws annotated spectra. An instance keeps its render context, i.e. the font, its metrics, the number
+ * format and the scratch arrays and shapes, across the calls of drawSpectrum, so that drawing many spectra
+ * allocates little; an instance is therefore not to be shared by threads.
+ */
 public class MSAnnotator {
 
+    private static final Font FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 24);
+
     final int maxCharHeight = 18;
     final int minFontSize = 6;
     final Color bg = Color.WHITE;
@@ -43,6 +51,16 @@ public class MSAnnotator {
     int topNumToShow = 10;
     FontMetrics fontMetrics;
 
+    // the render context, reused by the calls of drawSpectrum;
+    private FontRenderContext frc;
+    private int frcWidth;
+    private final DecimalFormat df = new DecimalFormat("##.##");
+    private final Line2D.Double line = new Line2D.Double();
+    private double[] ri = new double[0];
+    private double[] riBuf = new double[0];
+    // the tallest peak of each pixel column of a dense spectrum;
+    private int[] colPeakArr = new int[0];
+
     public static void main(String[] args) throws IOException {
         String outFile = "C:/Users/l22he/tmp.png";
         double[] mz = new double[]{134.3, 345.5, 445.6887, 1840.21, 1856.33};
@@ -113,9 +131,14 @@ public class MSAnnotator {
         g2.setPaint(bg);
         g2.fillRect(0, 0, gridWidth, gridHeight);
         g2.setPaint(fg);
-        g2.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 24));
+        g2.setFont(FONT);
 
-        fontMetrics = pickFont(g2, "Filled and Stroked GeneralPath", gridWidth);
+        // the font is picked again only for another render context or image width;
+        if (fontMetrics == null || gridWidth != frcWidth || !g2.getFontRenderContext().equals(frc)) {
+            fontMetrics = pickFont(g2, "Filled and Stroked GeneralPath", gridWidth);
+            frc = g2.getFontRenderContext();
+            frcWidth = gridWidth;
+        }
         String errMsg = "Enlarge to show the spectrum";
         if (gridWidth <= 2 * edgeWidth + fontMetrics.stringWidth(errMsg)
                 || gridHeight <= 4 * edgeHeight) {
@@ -162,32 +185,32 @@ public class MSAnnotator {
         float xMinorSpaceLength = (rectWidth - edgeWidth) / maxTickMark;
         for (int i = minTickMark; i * xMinorSpaceLength < rectWidth; i++) {
             if (i % majorTickUnit == 0) {
-                g2.draw(new Line2D.Double(originX + i * xMinorSpaceLength, originY,
-                        originX + i * xMinorSpaceLength, originY + majorTickMarkLength));
+                drawLine(g2, originX + i * xMinorSpaceLength, originY,
+                        originX + i * xMinorSpaceLength, originY + majorTickMarkLength);
                 String unitLabel = String.valueOf(i);
                 g2.drawString(unitLabel,
                         originX + i * xMinorSpaceLength - fontMetrics.stringWidth(unitLabel) / 2,
                         originY + fontMetrics.getHeight());
             } else if (i % mediaTickUnit == 0) {
-                g2.draw(new Line2D.Double(originX + i * xMinorSpaceLength, originY,
-                        originX + i * xMinorSpaceLength, originY + mediaTickMarkLength));
+                drawLine(g2, originX + i * xMinorSpaceLength, originY,
+                        originX + i * xMinorSpaceLength, originY + mediaTickMarkLength);
             } else if (i % minorTickUnit == 0) {
-                g2.draw(new Line2D.Double(originX + i * xMinorSpaceLength, originY,
-                        originX + i * xMinorSpaceLength, originY + minorTickMarkLength));
+                drawLine(g2, originX + i * xMinorSpaceLength, originY,
+                        originX + i * xMinorSpaceLength, originY + minorTickMarkLength);
             }
         }
 
      // draw y axis tick marks and units;
         float yMinorSpaceLength = rectHeight / 100;
-        g2.draw(new Line2D.Double(originX, originY - rectHeight / 2,
-                originX - majorTickMarkLength, originY - rectHeight / 2));
+        line.setLine(originX, originY - rectHeight / 2, originX - majorTickMarkLength, originY - rectHeight / 2);
+        g2.draw(line);
         String unitLabel = String.valueOf(50 / scale);
         g2.drawString(unitLabel,
                 originX - fontMetrics.stringWidth(unitLabel) - fontMetrics.getWidths()[0] / 4 - majorTickMarkLength,
                 originY - rectHeight / 2 + fontMetrics.getHeight() / 4);
 
-        g2.draw(new Line2D.Double(originX, originY - rectHeight,
-                originX - majorTickMarkLength, originY - rectHeight));
+        line.setLine(originX, originY - rectHeight, originX - majorTickMarkLength, originY - rectHeight);
+        g2.draw(line);
         unitLabel = String.valueOf(100 / scale);
         g2.drawString(unitLabel,
                 originX - fontMetrics.stringWidth(unitLabel) - fontMetrics.getWidths()[0] / 4 - majorTickMarkLength,
@@ -201,7 +224,10 @@ public class MSAnnotator {
         g2.drawString(precText, textX, textY);
             
         // calculate relative intensities;
-        double[] ri = new double[peakNum];
+        if (ri.length < peakNum) {
+            ri = new double[peakNum];
+            riBuf = new double[peakNum];
+        }
         double maxH = Double.NEGATIVE_INFINITY;
         for (int i = 0; i < peakNum; i++) {
             if (maxH < h[i]) {
@@ -216,16 +242,38 @@ public class MSAnnotator {
             }
         }
         int topNum = (topNumToShow < peakNum) ? topNumToShow : peakNum;
-        double[] tmpRi = new double[peakNum];
-        System.arraycopy(ri, 0, tmpRi, 0, peakNum);
-        Arrays.sort(tmpRi);
-        double lowestRiToLabel = tmpRi[peakNum - topNum];
+        System.arraycopy(ri, 0, riBuf, 0, peakNum);
+        double lowestRiToLabel = select(riBuf, peakNum, peakNum - topNum);
 
-        // draw peaks;
-        DecimalFormat df = new DecimalFormat("##.##");
+        // draw peaks; with more peaks than pixel columns, the lines sharing a column all rise from the x axis,
+        // so only the tallest one of each column shows, and only that one is drawn;
+        boolean isDense = peakNum > gridWidth;
+        if (isDense) {
+            if (colPeakArr.length < gridWidth) {
+                colPeakArr = new int[gridWidth];
+            }
+            Arrays.fill(colPeakArr, 0, gridWidth, -1);
+            for (int i = 0; i < peakNum; i++) {
+                // the renderer takes the coordinates as floats;
+                int col = (int) (float) (originX + mz[i] * xMinorSpaceLength);
+                col = col < 0 ? 0 : (col < gridWidth ? col : gridWidth - 1);
+                if (colPeakArr[col] < 0 || ri[i] > ri[colPeakArr[col]]) {
+                    colPeakArr[col] = i;
+                }
+            }
+            for (int col = 0; col < gridWidth; col++) {
+                int i = colPeakArr[col];
+                if (i >= 0) {
+                    drawLine(g2, originX + mz[i] * xMinorSpaceLength, originY,
+                            originX + mz[i] * xMinorSpaceLength, originY - ri[i] * yMinorSpaceLength);
+                }
+            }
+        }
         for (int i = 0; i < peakNum; i++) {
-            g2.draw(new Line2D.Double(originX + mz[i] * xMinorSpaceLength, originY,
-                    originX + mz[i] * xMinorSpaceLength, originY - ri[i] * yMinorSpaceLength));
+            if (!isDense) {
+                drawLine(g2, originX + mz[i] * xMinorSpaceLength, originY,
+                        originX + mz[i] * xMinorSpaceLength, originY - ri[i] * yMinorSpaceLength);
+            }
             if (ri[i] >= lowestRiToLabel) {
                 unitLabel = df.format(mz[i]);
                 g2.setColor(Color.gray);
@@ -249,8 +297,9 @@ public class MSAnnotator {
         	}
             double scaledH = anno.h * scale;
         	scaledH = scaledH > 100 ? 100 : scaledH;
-            g2.draw(new Line2D.Double(originX + anno.mz * xMinorSpaceLength, originY,
-                    originX + anno.mz * xMinorSpaceLength, originY - scaledH * yMinorSpaceLength));
+            line.setLine(originX + anno.mz * xMinorSpaceLength, originY,
+                    originX + anno.mz * xMinorSpaceLength, originY - scaledH * yMinorSpaceLength);
+            g2.draw(line);
 
             // draw the label;
             AttributedString annoText = anno.text;
@@ -314,4 +363,62 @@ public class MSAnnotator {
         g2.dispose();
     }
 
+    private void drawLine(Graphics2D g2, double x1, double y1, double x2, double y2) {
+        line.setLine(x1, y1, x2, y2);
+        g2.draw(line);
+    }
+
+    /**
+     * Select the value of a rank, as Arrays.sort(arr, 0, len) would put at arr[rank], in linear time on average.
+     * The order of the values in the array is changed.
+     */
+    private static double select(double[] arr, int len, int rank) {
+        int lo = 0;
+        int hi = len - 1;
+        while (lo < hi) {
+            // the median of three as the pivot;
+            int mid = (lo + hi) >>> 1;
+            if (arr[mid] < arr[lo]) {
+                swap(arr, lo, mid);
+            }
+            if (arr[hi] < arr[lo]) {
+                swap(arr, lo, hi);
+            }
+            if (arr[hi] < arr[mid]) {
+                swap(arr, mid, hi);
+            }
+            double pivot = arr[mid];
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (arr[i] < pivot) {
+                    i++;
+                }
+                while (arr[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(arr, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (rank <= j) {
+                hi = j;
+            } else if (rank >= i) {
+                lo = i;
+            } else {
+                return arr[rank];
+            }
+        }
+        return arr[rank];
+    }
+
+    private static void swap(double[] arr, int i, int j) {
+        double tmp = arr[i];
+        arr[i] = arr[j];
+        arr[j] = tmp;
+    }
+
 }
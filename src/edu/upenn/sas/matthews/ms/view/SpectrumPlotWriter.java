@@ -0,0 +1,151 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.view;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws annotated spectra and writes them as PNG files on background threads, so that the threads scoring
+ * the spectra do not wait for the PNG encoding. The number of plots waiting to be written is bounded, so a
+ * submitting thread waits when the writers fall behind; the images are taken from a pool and reused, since
+ * MSAnnotator paints every pixel of an image.
+ */
+public class SpectrumPlotWriter {
+
+    public static final int DEFAULT_WIDTH = 2000;
+    public static final int DEFAULT_HEIGHT = 600;
+
+    private final int width;
+    private final int height;
+    private final ExecutorService writers;
+    // the plots submitted but not yet written;
+    private final Semaphore slots;
+    private final BlockingQueue<BufferedImage> imagePool;
+    // an annotator keeps its render context, so each writer thread has its own;
+    private final ThreadLocal<MSAnnotator> annotators = ThreadLocal.withInitial(MSAnnotator::new);
+
+    // the first failure of the writers, reported to the submitting threads;
+    private volatile IOException failure;
+
+    /**
+     * Get a writer of the default image size, with at most two plots waiting per writer thread.
+     * @param threadNum the number of writer threads.
+     */
+    public SpectrumPlotWriter(int threadNum) {
+        this(threadNum, 2 * Math.max(1, threadNum), DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    /**
+     * Get a writer.
+     * @param threadNum the number of writer threads.
+     * @param maxPending the maximum number of plots submitted but not yet being drawn.
+     * @param width the width of the images.
+     * @param height the height of the images.
+     */
+    public SpectrumPlotWriter(int threadNum, int maxPending, int width, int height) {
+        threadNum = Math.max(1, threadNum);
+        this.width = width;
+        this.height = height;
+        writers = Executors.newFixedThreadPool(threadNum, r -> {
+            Thread t = new Thread(r, "plot-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        slots = new Semaphore(threadNum + Math.max(0, maxPending));
+        imagePool = new ArrayBlockingQueue<>(threadNum);
+    }
+
+    /**
+     * Draw an annotated spectrum into a PNG file in the background. The arrays and the annotations must
+     * not be changed after the call.
+     * @param pngFile the PNG file.
+     * @param precMz the precursor m/z.
+     * @param precZ the precursor charge.
+     * @param mzArr the m/z values of the peaks.
+     * @param relaHArr the relative intensities of the peaks.
+     * @param alist the annotations of the peaks.
+     * @throws IOException if an earlier plot has failed, or the call is interrupted.
+     */
+    public void submit(File pngFile, double precMz, int precZ, double[] mzArr, double[] relaHArr,
+                       ArrayList<Annotation> alist) throws IOException {
+        checkFailure();
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the plot writers", e);
+        }
+
+        writers.execute(() -> {
+            try {
+                BufferedImage bi = imagePool.poll();
+                if (bi == null) {
+                    bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_BGR);
+                }
+                annotators.get().drawSpectrum(bi, precMz, precZ, mzArr, relaHArr, alist);
+                ImageIO.write(bi, "png", pngFile);
+                imagePool.offer(bi);
+            } catch (IOException e) {
+                fail(new IOException("Failed in writing " + pngFile, e));
+            } catch (RuntimeException e) {
+                fail(new IOException("Failed in drawing " + pngFile, e));
+            } finally {
+                slots.release();
+            }
+        });
+    }
+
+    /**
+     * Wait for all submitted plots to be written, and stop the writer threads.
+     * @throws IOException if a plot has failed, or the call is interrupted.
+     */
+    public void close() throws IOException {
+        writers.shutdown();
+        try {
+            while (!writers.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting, the plots are still being written;
+            }
+        } catch (InterruptedException e) {
+            writers.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the plot writers", e);
+        }
+        checkFailure();
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+}
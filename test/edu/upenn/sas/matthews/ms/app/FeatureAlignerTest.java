@@ -0,0 +1,135 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FeatureAlignerTest {
+
+    private static final int PAIR_NUM = 60;
+    // the retention times of the second file are those of the reference stretched and shifted;
+    private static final double SLOPE = 1.02;
+    private static final double OFFSET = 0.8;
+
+    /**
+     * The shift of retention time of a file with a linear drift is recovered between the first and the last
+     * knots, and its pairs join the features of the reference; beyond the knots the shift is flat, which the
+     * tolerance of retention time covers here.
+     */
+    @Test
+    public void recoversLinearDrift() {
+        List<PrecInfo> refList = new ArrayList<>();
+        List<PrecInfo> piList = new ArrayList<>();
+        for (int i = 0; i < PAIR_NUM; i++) {
+            refList.add(pair(mz(i), 2000 + i, "ref", rt(i)));
+            piList.add(pair(mz(i), 1000 + i, "drifted", SLOPE * rt(i) + OFFSET));
+        }
+
+        double[][] drift = FeatureAligner.fitRtDrift(piList, grid(refList), 5, true, 3);
+        Assert.assertNotNull(drift);
+        double[] knotRtArr = drift[0];
+        for (int i = 0; i < PAIR_NUM; i++) {
+            double rt = SLOPE * rt(i) + OFFSET;
+            if (rt >= knotRtArr[0] && rt <= knotRtArr[knotRtArr.length - 1]) {
+                Assert.assertEquals(rt(i) - rt, FeatureAligner.interpolate(drift, rt), 1E-9);
+            }
+        }
+
+        List<FeatureAligner.Feature> features = FeatureAligner.align(groups(refList, piList),
+                new String[]{"ref", "drifted"}, 5, true, 0.5, 3);
+        Assert.assertEquals(PAIR_NUM, features.size());
+        for (int i = 0; i < PAIR_NUM; i++) {
+            FeatureAligner.Feature feature = features.get(i);
+            Assert.assertEquals(mz(i), feature.getMz(), 0);
+            Assert.assertEquals(rt(i), feature.getRt(), 0);
+            Assert.assertEquals(2, feature.getFileNum());
+            Assert.assertEquals(1000 + i, feature.getHArr()[1], 0);
+        }
+    }
+
+    /**
+     * A pair matching two pairs of the reference is not an anchor, so a file whose pairs are all ambiguous
+     * has too few anchors to be corrected.
+     */
+    @Test
+    public void takesUniqueAnchorsOnly() {
+        List<PrecInfo> refList = new ArrayList<>();
+        List<PrecInfo> piList = new ArrayList<>();
+        for (int i = 0; i < PAIR_NUM; i++) {
+            refList.add(pair(mz(i), 2000, "ref", rt(i)));
+            piList.add(pair(mz(i), 1000, "drifted", rt(i) + OFFSET));
+        }
+        Assert.assertNotNull(FeatureAligner.fitRtDrift(piList, grid(refList), 5, true, 3));
+
+        for (int i = 0; i < PAIR_NUM; i++) {
+            refList.add(pair(mz(i) * (1 + 1E-6), 2000, "ref", rt(i) + 1.5));
+        }
+        Assert.assertNull(FeatureAligner.fitRtDrift(piList, grid(refList), 5, true, 3));
+    }
+
+    /**
+     * Of the pairs of a file joining the same feature, only the most intense one is counted.
+     */
+    @Test
+    public void keepsMostIntensePairOfFile() {
+        List<PrecInfo> refList = new ArrayList<>();
+        List<PrecInfo> piList = new ArrayList<>();
+        refList.add(pair(500, 3000, "ref", 20));
+        piList.add(pair(500.0005, 800, "other", 20.02));
+        piList.add(pair(500.0010, 1200, "other", 20.05));
+        piList.add(pair(500.0004, 900, "other", 19.98));
+
+        List<FeatureAligner.Feature> features = FeatureAligner.align(groups(refList, piList),
+                new String[]{"ref", "other"}, 5, true, 0.1, 0);
+        Assert.assertEquals(1, features.size());
+        FeatureAligner.Feature feature = features.get(0);
+        Assert.assertEquals(2, feature.getFileNum());
+        Assert.assertArrayEquals(new double[]{3000, 1200}, feature.getHArr(), 0);
+    }
+
+    private static double mz(int i) {
+        return 400 + 17.3 * i;
+    }
+
+    private static double rt(int i) {
+        return 10 + 1.5 * i;
+    }
+
+    private static PrecInfo pair(double mz, double h, String filename, double rt) {
+        return new PrecInfo(mz, h, 2, filename, rt);
+    }
+
+    private static PrecInfoGrid grid(List<PrecInfo> refList) {
+        PrecInfoGrid grid = new PrecInfoGrid(1000 * 5 / 1E6, 3);
+        for (PrecInfo pi : refList) {
+            grid.add(pi);
+        }
+        return grid;
+    }
+
+    private static Map<String, List<PrecInfo>> groups(List<PrecInfo> refList, List<PrecInfo> piList) {
+        Map<String, List<PrecInfo>> groups = new HashMap<>();
+        groups.put(refList.get(0).filename, refList);
+        groups.put(piList.get(0).filename, piList);
+        return groups;
+    }
+
+}
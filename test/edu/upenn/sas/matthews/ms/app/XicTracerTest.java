@@ -0,0 +1,68 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class XicTracerTest {
+
+    /**
+     * Two pairs of a scan nearest to the same trace go to two traces, instead of one of them being dropped.
+     */
+    @Test
+    public void takesNearestFreeTrace() {
+        List<PrecInfo> traceList = new ArrayList<>();
+        XicTracer tracer = new XicTracer(5, true, 1, traceList);
+        tracer.next(Arrays.asList(pair(500.0000, 1), pair(500.0020, 1)));
+        tracer.next(Arrays.asList(pair(500.0004, 2), pair(500.0008, 2)));
+        tracer.close();
+
+        Assert.assertEquals(2, traceList.size());
+        for (PrecInfo pi : traceList) {
+            Assert.assertEquals(2, ((XicTracer.Trace) pi).getScanNum());
+        }
+    }
+
+    /**
+     * A trace extended in a scan still takes the next pairs in m/z order, and a pair far from all traces
+     * starts its own.
+     */
+    @Test
+    public void extendsAfterSweep() {
+        List<PrecInfo> traceList = new ArrayList<>();
+        XicTracer tracer = new XicTracer(5, true, 0, traceList);
+        tracer.next(Arrays.asList(pair(400.0000, 1), pair(400.0015, 1), pair(600.0, 1)));
+        tracer.next(Arrays.asList(pair(400.0014, 2), pair(400.0016, 2), pair(700.0, 2)));
+        tracer.next(Arrays.asList(pair(400.0014, 3), pair(400.0016, 3)));
+        tracer.close();
+
+        int[] scanNums = new int[traceList.size()];
+        for (int i = 0; i < scanNums.length; i++) {
+            scanNums[i] = ((XicTracer.Trace) traceList.get(i)).getScanNum();
+        }
+        Arrays.sort(scanNums);
+        Assert.assertArrayEquals(new int[]{1, 1, 3, 3}, scanNums);
+    }
+
+    private static PrecInfo pair(double mz, double rt) {
+        return new PrecInfo(mz, 1000, 2, "a.ms1", rt);
+    }
+
+}
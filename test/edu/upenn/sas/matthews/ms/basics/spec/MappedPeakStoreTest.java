@@ -0,0 +1,136 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.basics.spec;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class MappedPeakStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void readsThroughScans() throws IOException {
+        File scratchDir = tmp.newFolder("scratch");
+        SpectrumRun run = new SpectrumRun(new MappedPeakStore(scratchDir, true));
+        run.add(spectrum(10, 100.5, 200.25, 300.125));
+        run.add(spectrum(12, 150.5, 250.75));
+        run.trim();
+
+        SpectrumRun.Scan scan = run.getScan(run.indexOf(12));
+        Assert.assertEquals(2, scan.getNumPeaks());
+        Assert.assertEquals(250.75, scan.getMz(1), 0);
+        Assert.assertEquals(1, scan.searchMz(250.75, 5, true));
+        Assert.assertArrayEquals(new double[]{150.5, 250.75}, scan.getMzArr(), 0);
+        Assert.assertSame(scan.getMzArr(), scan.getMzArr());
+        Assert.assertEquals(3, run.getScan(0, scan).getNumPeaks());
+        Assert.assertEquals(300.125, scan.getMzArr()[2], 0);
+        Assert.assertEquals(-1, run.indexOf(11));
+        run.close();
+    }
+
+    /**
+     * The scratch files are unmapped and deleted when the store is closed.
+     */
+    @Test
+    public void deletesScratchFilesOnClose() throws IOException {
+        File scratchDir = tmp.newFolder("scratch");
+        MappedPeakStore store = new MappedPeakStore(scratchDir, false);
+        store.append(new double[]{100, 200}, new double[]{1, 2}, 2);
+        Assert.assertEquals(2, scratchDir.list().length);
+
+        store.close();
+        Assert.assertEquals(0, scratchDir.list().length);
+    }
+
+    /**
+     * The files grow a chunk at a time, are cut down to the peaks by trim(), and grow again on an append.
+     */
+    @Test
+    public void trimsScratchFiles() throws IOException {
+        File scratchDir = tmp.newFolder("scratch");
+        MappedPeakStore store = new MappedPeakStore(scratchDir, true);
+        store.append(new double[]{100, 200, 300}, new double[]{1, 2, 3}, 3);
+        File[] files = scratchDir.listFiles();
+        Assert.assertEquals(2, files.length);
+        Assert.assertTrue(files[0].length() < 64L << 20);
+
+        store.trim();
+        for (File file : files) {
+            Assert.assertEquals(3 * Float.BYTES, file.length());
+        }
+        Assert.assertEquals(300, store.getMz(2), 0);
+
+        store.append(new double[]{400}, new double[]{4}, 1);
+        store.trim();
+        for (File file : files) {
+            Assert.assertEquals(4 * Float.BYTES, file.length());
+        }
+        Assert.assertEquals(300, store.getMz(2), 0);
+        Assert.assertEquals(4, store.getInten(3), 0);
+        store.close();
+        Assert.assertEquals(0, scratchDir.list().length);
+    }
+
+    @Test
+    public void readsAcrossChunks() throws IOException {
+        File scratchDir = tmp.newFolder("scratch");
+        MappedPeakStore store = new MappedPeakStore(scratchDir, false);
+        double[] mzArr = new double[1000];
+        double[] intenArr = new double[1000];
+        int num = 0;
+        // more than one chunk of 2^20 peaks, trimmed in the middle;
+        for (int b = 0; b < 1500; b++) {
+            for (int i = 0; i < mzArr.length; i++) {
+                mzArr[i] = num + i;
+                intenArr[i] = -(num + i);
+            }
+            store.append(mzArr, intenArr, mzArr.length);
+            num += mzArr.length;
+            if (b == 700) {
+                store.trim();
+            }
+        }
+        store.trim();
+
+        Assert.assertEquals(num, store.size());
+        for (File file : scratchDir.listFiles()) {
+            Assert.assertEquals((long) num * Double.BYTES, file.length());
+        }
+        for (int i = 0; i < num; i += 997) {
+            Assert.assertEquals(i, store.getMz(i), 0);
+            Assert.assertEquals(-i, store.getInten(i), 0);
+        }
+        Assert.assertEquals(num - 1, store.getMz(num - 1), 0);
+        store.close();
+    }
+
+    private static MSnSpectrum spectrum(int scanNumber, double... mzArr) {
+        double[] intenArr = new double[mzArr.length];
+        for (int i = 0; i < intenArr.length; i++) {
+            intenArr[i] = 1000 * (i + 1);
+        }
+        MSnSpectrum spec = new MSnSpectrum(mzArr, intenArr, 1);
+        spec.setScanNumber(scanNumber);
+        return spec;
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.basics.spec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class SpectrumRunTest {
+
+    /**
+     * The searches of a scan read the store in place, and find the same peaks as the ones of MassSpectrum.
+     */
+    @Test
+    public void searchesLikeMassSpectrum() throws IOException {
+        Random random = new Random(42);
+        SpectrumRun run = new SpectrumRun(true);
+        MSnSpectrum[] specArr = new MSnSpectrum[5];
+        for (int s = 0; s < specArr.length; s++) {
+            // float values, which the float columns keep exactly;
+            double[] mzArr = new double[200 + random.nextInt(200)];
+            double mz = 300;
+            for (int i = 0; i < mzArr.length; i++) {
+                mz += 0.001 + random.nextDouble() * (random.nextBoolean() ? 0.01 : 5);
+                mzArr[i] = (float) mz;
+            }
+            double[] intenArr = new double[mzArr.length];
+            Arrays.fill(intenArr, 1000);
+            specArr[s] = new MSnSpectrum(mzArr, intenArr, 1);
+            specArr[s].setScanNumber(s + 1);
+            run.add(specArr[s]);
+        }
+
+        SpectrumRun.Scan scan = new SpectrumRun.Scan();
+        double[] targetArr = new double[16];
+        int[] expectedArr = new int[targetArr.length];
+        int[] actualArr = new int[targetArr.length];
+        for (int s = 0; s < specArr.length; s++) {
+            MassSpectrum spec = specArr[s];
+            run.getScan(s, scan);
+            int peakNum = spec.getNumPeaks();
+            for (int t = 0; t < 1000; t++) {
+                int from = random.nextInt(peakNum);
+                double target = spec.getMz(from) + random.nextDouble() * 3 - 0.5;
+                Assert.assertEquals(spec.searchMz(target, 10, true), scan.searchMz(target, 10, true));
+                Assert.assertEquals(spec.searchMz(target, 0.01, false, from), scan.searchMz(target, 0.01, false, from));
+
+                double mz = spec.getMz(from);
+                for (int i = 0; i < targetArr.length; i++) {
+                    mz += random.nextDouble() * 2;
+                    targetArr[i] = random.nextInt(4) == 0 ? spec.getMz(Math.min(peakNum - 1, from + i)) : mz;
+                }
+                Arrays.sort(targetArr);
+                spec.searchMzBatch(targetArr, targetArr.length, 20, true, from, expectedArr);
+                scan.searchMzBatch(targetArr, targetArr.length, 20, true, from, actualArr);
+                Assert.assertArrayEquals(expectedArr, actualArr);
+            }
+        }
+        run.close();
+    }
+
+}
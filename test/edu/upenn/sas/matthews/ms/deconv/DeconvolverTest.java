@@ -0,0 +1,139 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.deconv;
+
+import edu.upenn.sas.matthews.ms.basics.Constants;
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeconvolverTest {
+
+    // the heights of an averagine envelope of about 2000 Da, the second peak being the highest;
+    private static final double[] ENV_H_ARR = {100, 149, 111, 55, 20};
+
+    /**
+     * Each envelope takes the charge state whose isotope steps its peaks follow, and all its peaks.
+     */
+    @Test
+    public void choosesChargeState() {
+        List<double[]> peakList = new ArrayList<>();
+        addEnvelope(peakList, 667.3, 3, ENV_H_ARR);
+        addEnvelope(peakList, 1000.5, 2, ENV_H_ARR);
+        addEnvelope(peakList, 1500.2, 1, 100, 80, 30);
+        List<IsotopeEnvelope> envList = new Deconvolver(10, true, 4).deconvolve(spectrum(peakList));
+
+        Assert.assertEquals(3, envList.size());
+        int[] zArr = {3, 2, 1};
+        double[] monoMzArr = {667.3, 1000.5, 1500.2};
+        int[] peakNumArr = {5, 5, 3};
+        int firstIdx = 0;
+        for (int a = 0; a < envList.size(); a++) {
+            IsotopeEnvelope env = envList.get(a);
+            Assert.assertEquals(zArr[a], env.getZ());
+            Assert.assertEquals(monoMzArr[a], env.getMonoMz(), 1E-9);
+            Assert.assertEquals(peakNumArr[a], env.getPeakNum());
+            for (int k = 0; k < env.getPeakNum(); k++) {
+                Assert.assertEquals(firstIdx + k, env.getPeakIdx(k));
+            }
+            firstIdx += env.getPeakNum();
+        }
+    }
+
+    /**
+     * A first peak far below the height expected from the second one is noise, and the envelope starts at
+     * the second peak.
+     */
+    @Test
+    public void dropsLowLeadPeak() {
+        List<double[]> peakList = new ArrayList<>();
+        addEnvelope(peakList, 1000.5 - Constants.NEUTRON_MASS / 2, 2, 5);
+        addEnvelope(peakList, 1000.5, 2, ENV_H_ARR);
+        List<IsotopeEnvelope> envList = new Deconvolver(10, true, 4).deconvolve(spectrum(peakList));
+
+        Assert.assertEquals(1, envList.size());
+        IsotopeEnvelope env = envList.get(0);
+        Assert.assertEquals(2, env.getZ());
+        Assert.assertEquals(1000.5, env.getMonoMz(), 1E-9);
+        Assert.assertEquals(ENV_H_ARR.length, env.getPeakNum());
+        Assert.assertEquals(1, env.getPeakIdx(0));
+        Assert.assertEquals(ENV_H_ARR[0], env.getPeakInten(0), 0);
+    }
+
+    /**
+     * A rise after a fall ends an envelope, the rising peak starting the next one.
+     */
+    @Test
+    public void splitsOnRiseAfterFall() {
+        List<double[]> peakList = new ArrayList<>();
+        addEnvelope(peakList, 1000.5, 2, 100, 149, 111, 55);
+        double nextMonoMz = 1000.5 + 4 * Constants.NEUTRON_MASS / 2;
+        addEnvelope(peakList, nextMonoMz, 2, 80, 119, 89, 44);
+        List<IsotopeEnvelope> envList = new Deconvolver(10, true, 4).deconvolve(spectrum(peakList));
+
+        Assert.assertEquals(2, envList.size());
+        Assert.assertEquals(1000.5, envList.get(0).getMonoMz(), 1E-9);
+        Assert.assertEquals(4, envList.get(0).getPeakNum());
+        Assert.assertEquals(nextMonoMz, envList.get(1).getMonoMz(), 1E-9);
+        Assert.assertEquals(4, envList.get(1).getPeakNum());
+        Assert.assertEquals(4, envList.get(1).getPeakIdx(0));
+    }
+
+    /**
+     * An envelope below the intensity threshold of deconvolve is still read at its peak by getEnvelope, but
+     * not at a charge state its peaks do not follow.
+     */
+    @Test
+    public void getsEnvelopeBelowThreshold() {
+        List<double[]> peakList = new ArrayList<>();
+        addEnvelope(peakList, 1000.5, 2, ENV_H_ARR);
+        addEnvelope(peakList, 1200.6, 2, 10, 14.9, 11.1, 5.5);
+        MSnSpectrum spec = spectrum(peakList);
+        Deconvolver deconvolver = new Deconvolver(10, true, 4, 3, 8);
+
+        List<IsotopeEnvelope> envList = deconvolver.deconvolve(spec, 50);
+        Assert.assertEquals(1, envList.size());
+        Assert.assertEquals(1000.5, envList.get(0).getMonoMz(), 1E-9);
+
+        IsotopeEnvelope env = deconvolver.getEnvelope(spec, 1200.6 + 1E-4, 2);
+        Assert.assertNotNull(env);
+        Assert.assertEquals(2, env.getZ());
+        Assert.assertEquals(1200.6, env.getMonoMz(), 1E-9);
+        Assert.assertEquals(4, env.getPeakNum());
+        Assert.assertEquals(14.9, env.getPeakInten(1), 0);
+        Assert.assertNull(deconvolver.getEnvelope(spec, 1200.6, 3));
+    }
+
+    private static void addEnvelope(List<double[]> peakList, double monoMz, int z, double... hArr) {
+        for (int k = 0; k < hArr.length; k++) {
+            peakList.add(new double[]{monoMz + k * Constants.NEUTRON_MASS / z, hArr[k]});
+        }
+    }
+
+    private static MSnSpectrum spectrum(List<double[]> peakList) {
+        peakList.sort((a, b) -> Double.compare(a[0], b[0]));
+        double[] mzArr = new double[peakList.size()];
+        double[] intenArr = new double[peakList.size()];
+        for (int i = 0; i < mzArr.length; i++) {
+            mzArr[i] = peakList.get(i)[0];
+            intenArr[i] = peakList.get(i)[1];
+        }
+        return new MSnSpectrum(mzArr, intenArr, 1);
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.io;
+
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MSnCacheTest {
+
+    private static final List<String> H_LINES = Arrays.asList("H\tCreationDate\t2019-01-01",
+            "H\tExtractor\tRawConverter", "H\tComment\tnano-LC run");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * The H lines and the spectra read from the cache are the ones of the file, by either parser.
+     */
+    @Test
+    public void keepsHLinesAndSpectra() throws IOException {
+        File file = write();
+        for (boolean isMapped : new boolean[]{false, true}) {
+            File cacheFile = new File(file.getAbsolutePath() + MSnCacheWriter.SUFFIX);
+            cacheFile.delete();
+
+            List<MSnSpectrum> parsed = readAll(file, isMapped);
+            Assert.assertTrue(cacheFile.exists());
+
+            MSnFileReader mfr = new MSnFileReader(file.getAbsolutePath(), isMapped, true);
+            Assert.assertEquals(H_LINES, mfr.getHLines());
+            List<MSnSpectrum> cached = new ArrayList<>();
+            while (mfr.hasNext()) {
+                cached.add(mfr.next());
+            }
+            mfr.close();
+
+            Assert.assertEquals(parsed.size(), cached.size());
+            for (int i = 0; i < parsed.size(); i++) {
+                Assert.assertEquals(parsed.get(i).getScanNumber(), cached.get(i).getScanNumber());
+                Assert.assertArrayEquals(parsed.get(i).getMzArr(), cached.get(i).getMzArr(), 0);
+                Assert.assertArrayEquals(parsed.get(i).getIntenArr(), cached.get(i).getIntenArr(), 0);
+            }
+        }
+    }
+
+    private List<MSnSpectrum> readAll(File file, boolean isMapped) throws IOException {
+        MSnFileReader mfr = new MSnFileReader(file.getAbsolutePath(), isMapped, true);
+        Assert.assertEquals(H_LINES, mfr.getHLines());
+        List<MSnSpectrum> ret = new ArrayList<>();
+        while (mfr.hasNext()) {
+            ret.add(mfr.next());
+        }
+        mfr.close();
+        return ret;
+    }
+
+    private File write() throws IOException {
+        File file = tmp.newFile("scans.ms1");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        for (String line : H_LINES) {
+            bw.write(line + "\n");
+        }
+        for (int scanNum = 1; scanNum <= 5; scanNum++) {
+            bw.write("S\t" + scanNum + "\t" + scanNum + "\n");
+            bw.write("I\tRetTime\t" + scanNum * 0.01 + "\n");
+            bw.write("100.25 1000.5\n");
+            bw.write((200 + scanNum) + ".125 " + scanNum * 10 + "\n");
+        }
+        bw.close();
+        return file;
+    }
+
+}
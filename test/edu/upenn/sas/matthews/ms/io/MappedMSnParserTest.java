@@ -0,0 +1,108 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.io;
+
+import edu.upenn.sas.matthews.ms.basics.spec.MSnSpectrum;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class MappedMSnParserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * The peaks must be parsed to the same floats as Float.parseFloat gives, for decimals of any length, by
+     * both the mapped parser and the line-based reader.
+     */
+    @Test
+    public void parsesPeaksAsFloatParseFloat() throws IOException {
+        List<String> mzList = new ArrayList<>();
+        List<String> hList = new ArrayList<>();
+        // a decimal whose double quotient is halfway between two floats;
+        mzList.add("1.857124149799347");
+        hList.add("1.857124149799347");
+        // the forms left to Float.parseFloat;
+        mzList.add("1.5E3");
+        hList.add("123456789012345678901234.5");
+
+        Random rnd = new Random(7);
+        for (int i = 0; i < 200000; i++) {
+            mzList.add(randomDecimal(rnd));
+            hList.add(randomDecimal(rnd));
+        }
+
+        File file = tmp.newFile("random.ms1");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        bw.write("H\tExtractor\tMappedMSnParserTest\n");
+        bw.write("S\t000001\t000001\n");
+        bw.write("I\tRetTime\t1.0\n");
+        for (int i = 0; i < mzList.size(); i++) {
+            bw.write(mzList.get(i) + " " + hList.get(i) + "\n");
+        }
+        bw.close();
+
+        MappedMSnParser parser = new MappedMSnParser(file.getAbsolutePath());
+        MSnSpectrum spec = parser.next();
+        parser.close();
+        check(mzList, hList, spec);
+
+        MSnFileReader mfr = new MSnFileReader(file.getAbsolutePath(), false);
+        spec = mfr.next();
+        mfr.close();
+        check(mzList, hList, spec);
+    }
+
+    private static void check(List<String> mzList, List<String> hList, MSnSpectrum spec) {
+        Assert.assertEquals(mzList.size(), spec.getNumPeaks());
+        double[] mzArr = spec.getMzArr();
+        double[] intenArr = spec.getIntenArr();
+        for (int i = 0; i < mzList.size(); i++) {
+            Assert.assertEquals(mzList.get(i), Float.parseFloat(mzList.get(i)), (float) mzArr[i], 0);
+            Assert.assertEquals(hList.get(i), Float.parseFloat(hList.get(i)), (float) intenArr[i], 0);
+        }
+    }
+
+    /**
+     * A random plain decimal of 1 to 18 digits, with up to 4 of them before the point.
+     */
+    private static String randomDecimal(Random rnd) {
+        int intDigitNum = 1 + rnd.nextInt(4);
+        int fracDigitNum = rnd.nextInt(15);
+        StringBuilder sb = new StringBuilder();
+        sb.append(1 + rnd.nextInt(9));
+        for (int i = 1; i < intDigitNum; i++) {
+            sb.append(rnd.nextInt(10));
+        }
+        if (fracDigitNum > 0) {
+            sb.append('.');
+            for (int i = 0; i < fracDigitNum; i++) {
+                sb.append(rnd.nextInt(10));
+            }
+        }
+        return sb.toString();
+    }
+
+}
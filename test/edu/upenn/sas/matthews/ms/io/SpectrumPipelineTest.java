@@ -0,0 +1,110 @@
+/**
+ * Copyright 2019 Lin He, Megan L.Matthews
+ * <p>
+ * Licensed under the Apache License,Version2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.upenn.sas.matthews.ms.io;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SpectrumPipelineTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void receivesInScanOrder() throws IOException {
+        int[] scanNums = new int[100];
+        for (int i = 0; i < scanNums.length; i++) {
+            scanNums[i] = 2 * i + 1;
+        }
+        File file = write(scanNums);
+        List<Integer> received = new ArrayList<>();
+        MSnFileReader mfr = new MSnFileReader(file.getAbsolutePath(), false);
+        SpectrumPipeline.run(mfr, 4, 3, 8, spec -> spec.getScanNumber(), received::add);
+        mfr.close();
+
+        Assert.assertEquals(scanNums.length, received.size());
+        for (int i = 0; i < scanNums.length; i++) {
+            Assert.assertEquals(scanNums[i], (int) received.get(i));
+        }
+    }
+
+    @Test
+    public void reordersUnsortedScans() throws IOException {
+        File file = write(new int[]{1, 2, 3, 5, 4, 7, 6, 8});
+        for (int workerNum = 1; workerNum <= 2; workerNum++) {
+            Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8), receive(file, workerNum));
+        }
+    }
+
+    @Test
+    public void receivesScansBeyondTheWindowInFileOrder() throws IOException {
+        // the scan 1 comes after a whole window of higher scans, so it cannot be moved before them;
+        int num = SpectrumPipeline.REORDER_WINDOW + 10;
+        int[] scanNums = new int[num];
+        for (int i = 0; i < num - 1; i++) {
+            scanNums[i] = i + 2;
+        }
+        scanNums[num - 1] = 1;
+        File file = write(scanNums);
+
+        // the scans before the last window are passed on before the scan 1 is read;
+        int passedNum = num - 1 - SpectrumPipeline.REORDER_WINDOW;
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < passedNum; i++) {
+            expected.add(i + 2);
+        }
+        expected.add(1);
+        for (int i = passedNum; i < num - 1; i++) {
+            expected.add(i + 2);
+        }
+        Assert.assertEquals(expected, receive(file, 1));
+        Assert.assertEquals(expected, receive(file, 3));
+    }
+
+    private List<Integer> receive(File file, int workerNum) throws IOException {
+        List<Integer> received = new ArrayList<>();
+        MSnFileReader mfr = new MSnFileReader(file.getAbsolutePath(), false);
+        try {
+            SpectrumPipeline.run(mfr, workerNum, 2, 4, spec -> spec.getScanNumber(), received::add);
+        } finally {
+            mfr.close();
+        }
+        return received;
+    }
+
+    private File write(int[] scanNums) throws IOException {
+        File file = tmp.newFile("scans.ms1");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        bw.write("H\tExtractor\tSpectrumPipelineTest\n");
+        for (int scanNum : scanNums) {
+            bw.write("S\t" + scanNum + "\t" + scanNum + "\n");
+            bw.write("I\tRetTime\t" + scanNum * 0.01 + "\n");
+            bw.write("100.0 1000.0\n");
+        }
+        bw.close();
+        return file;
+    }
+
+}